@@ -41,6 +41,10 @@ jQuery.noConflict();
 			<dl>
 				<dt>Queue:</dt><dd>{{progress.queueCount}}</dd>
 				<dt>Untagged Files:</dt><dd>{{progress.fileCount}}</dd>
+				<dt ng-show="throughput">Throughput:</dt>
+				<dd ng-show="throughput">{{throughput.rowsPerSecond | number:1}} files/s ({{throughput.stageRows}} this stage)</dd>
+				<dt ng-show="throughput.etaSeconds >= 0">Stage Time Left:</dt>
+				<dd ng-show="throughput.etaSeconds >= 0">about {{formatEta(throughput.etaSeconds)}}</dd>
 			</dl>
 			<input type="button" ng-click="getProgress()" value="Refresh Progress" />
 		<h2>Last Run Statistics</h2>
@@ -70,6 +74,23 @@ jQuery.noConflict();
 
 				<span ng-show="scheduleform.hours.$error.integer">Hours and minutes needs to be a number.</span>
 			</div>
+			<h2>Recipients</h2>
+			<p>Both settings are used together. A course file gets alerts if a course role whose name contains one of the file roles has access to it. The alerts go to that course's members with one of the membership roles.</p>
+			<label for='principalRoles'>File roles, matched against the course roles in a file's permissions (comma separated, e.g.: instructor):</label><input id='principalRoles' name='principalRoles' type="text" ng-model="schedule.principalRoles" />
+			<br /><label for='recipientRoles'>Membership roles, course members with these roles get the alerts (comma separated, e.g.: UBC_Instructor, TA, BUILDER):</label><input id='recipientRoles' name='recipientRoles' type="text" ng-model="schedule.recipientRoles" />
+			<h2>Performance</h2>
+			<label for='queuePartitions'>Parallel queue generation scans:</label><input id='queuePartitions' name='queuePartitions' type="text" ng-model="schedule.queuePartitions" integer /> (at most 12)
+			<br /><label for='newFilesWorkers'>Parallel new file workers:</label><input id='newFilesWorkers' name='newFilesWorkers' type="text" ng-model="schedule.newFilesWorkers" integer />
+			<br /><label for='updateValidators'>Parallel existing file checks:</label><input id='updateValidators' name='updateValidators' type="text" ng-model="schedule.updateValidators" integer />
+			<br /><label for='insertFlushSize'>Rows per database insert batch:</label><input id='insertFlushSize' name='insertFlushSize' type="text" ng-model="schedule.insertFlushSize" integer />
+			<span ng-show="scheduleform.queuePartitions.$error.integer || scheduleform.newFilesWorkers.$error.integer || scheduleform.updateValidators.$error.integer || scheduleform.insertFlushSize.$error.integer">Needs to be a number.</span>
+			<br /><label for='verifyExisting'>Recheck every existing file instead of sweeping unconfirmed ones (slow) </label><input id='verifyExisting' type='checkbox' ng-model='schedule.verifyExisting' />
+			<h2>Incremental</h2>
+			<label for='incremental'>Only look for new files between full sweeps </label><input id='incremental' type='checkbox' ng-model='schedule.incremental' />
+			<div ng-show='schedule.incremental'>
+				<label for='fullSweepDays'>Days between full sweeps:</label><input id='fullSweepDays' name='fullSweepDays' type="text" ng-model="schedule.fullSweepDays" integer />
+				<span ng-show="scheduleform.fullSweepDays.$error.integer">Needs to be a number.</span>
+			</div>
 			<h2>Host</h2>
 			<label>Run alert generation on:
 				<select ng-model="host.leader" ng-options="opt for opt in host.options"></select>
@@ -129,6 +150,23 @@ jQuery.noConflict();
 			</p>
 		</div>
 	</div>
+
+	<div class="section">
+		<h1>Export Untagged Files</h1>
+		<p>
+		Download the list of all files that still need to be tagged. Leave the
+		filters empty to get every course.
+		</p>
+		<form method="get" action="/webapps/ubc-copyright-alerts-BBLEARN/systemconfig/export">
+			<label>Course Prefix <input type="text" name="course" placeholder="CL.UBC.MATH" /></label>
+			<label>Term <input type="text" name="term" placeholder="2012W2" /></label>
+			<select name="format">
+				<option value="csv">CSV</option>
+				<option value="json">JSON (one file per line)</option>
+			</select>
+			<input type="submit" value="Export" />
+		</form>
+	</div>
 </div>
 
 </bbNG:genericPage>
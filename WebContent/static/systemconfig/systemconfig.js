@@ -14,7 +14,8 @@ Services.factory('Status',
 				{action: 'status'},
 				{
 					stop: {method: 'GET', params: {action: 'stop'}},
-					progress: {method: 'GET', params: {action: 'progress'}}
+					progress: {method: 'GET', params: {action: 'progress'}},
+					events: {method: 'GET', params: {action: 'events'}}
 				}
 				);
 	}
@@ -121,10 +122,70 @@ SystemConfigModule.controller(
 		};
 		
 		// poll for a new status update every 10 seconds
-		(function pollStatus() {
+		$scope.pollStatus = function()
+		{
 			$scope.updateStatus();
-			$timeout(pollStatus, 10000);
-		})();
+			$timeout($scope.pollStatus, 10000);
+		};
+
+		// wait for the indexing job to tell us what changed, so we're not hitting the database on a timer. Falls
+		// back to polling if the job isn't running on this host or the request fails. The server also says it's not
+		// live when it has too many clients waiting, so keep checking back in case that changes.
+		var stream = {instance: '', seq: 0};
+		$scope.waitForEvents = function()
+		{
+			Status.events({instance: stream.instance, after: stream.seq},
+				function(ret)
+				{
+					if (!ret.live)
+					{
+						$scope.updateStatus();
+						$timeout($scope.waitForEvents, 10000);
+						return;
+					}
+					var statusChanged = ret.instance != stream.instance;
+					angular.forEach(ret.events, function(event)
+					{
+						if (event.type == 'throughput')
+						{
+							$scope.throughput = event;
+						}
+						else
+						{ // new stage or run status, the old throughput numbers no longer apply
+							statusChanged = true;
+							$scope.throughput = undefined;
+						}
+						if (event.queueCount >= 0)
+						{
+							$scope.progress = {queueCount: event.queueCount, fileCount: event.fileCount};
+						}
+					});
+					if (statusChanged)
+					{
+						$scope.updateStatus();
+					}
+					stream.instance = ret.instance;
+					stream.seq = ret.seq;
+					$scope.waitForEvents();
+				},
+				function(error)
+				{
+					$scope.pollStatus();
+				}
+			);
+		};
+
+		$scope.updateStatus();
+		$scope.waitForEvents();
+
+		// seconds to a readable duration, e.g.: 1h 5m 3s
+		$scope.formatEta = function(seconds)
+		{
+			var h = Math.floor(seconds / 3600);
+			var m = Math.floor((seconds % 3600) / 60);
+			var s = seconds % 60;
+			return (h > 0 ? h + 'h ' : '') + (h > 0 || m > 0 ? m + 'm ' : '') + s + 's';
+		};
 		
 		$scope.host = Host.get();
 
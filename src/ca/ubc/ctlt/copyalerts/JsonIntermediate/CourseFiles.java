@@ -25,6 +25,19 @@ public class CourseFiles
 		addFile(path);
 	}
 	
+	/**
+	 * Start with no files, for when files are added a page at a time.
+	 */
+	public CourseFiles(String courseId, String name, String title)
+	{
+		this.name = name;
+		this.title = title;
+		this.courseId = courseId;
+	}
+
+	/**
+	 * Note that this updates numFiles, so set numFiles after adding files if they're only a page of the total.
+	 */
 	public void addFile(String path)
 	{
 		FilePath newPath = new FilePath(path);
@@ -0,0 +1,23 @@
+package ca.ubc.ctlt.copyalerts.JsonIntermediate;
+
+// a single update on a running indexing job, published by ProgressEvents
+public class ProgressEvent
+{
+	public final static String TYPE_STATUS = "status";
+	public final static String TYPE_STAGE = "stage";
+	public final static String TYPE_THROUGHPUT = "throughput";
+
+	public long seq = 0;
+	public long time = 0;
+	public String type = "";
+	public String status = "";
+	public String stage = "";
+	// files processed in the current stage so far
+	public long stageRows = 0;
+	// files processed per second since the previous throughput event
+	public double rowsPerSecond = 0;
+	public long queueCount = -1;
+	public long fileCount = -1;
+	// estimated seconds left in the current stage, -1 if we can't tell
+	public long etaSeconds = -1;
+}
@@ -0,0 +1,16 @@
+package ca.ubc.ctlt.copyalerts.JsonIntermediate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// response to a long poll for progress events
+public class ProgressStream
+{
+	// changes when the server restarts, so clients know to start over from seq 0
+	public String instance = "";
+	// pass this back as "after" to get the events following these
+	public long seq = 0;
+	// false if the indexing job isn't running on this host or too many clients are waiting, the client should poll instead
+	public boolean live = false;
+	public List<ProgressEvent> events = new ArrayList<ProgressEvent>();
+}
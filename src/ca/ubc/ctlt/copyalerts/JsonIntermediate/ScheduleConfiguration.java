@@ -7,6 +7,15 @@ public class ScheduleConfiguration
 	public boolean limit;
 	public int hours;
 	public int minutes;
+	public int queuePartitions;
+	public int newFilesWorkers;
+	public int updateValidators;
+	public boolean verifyExisting;
+	public int insertFlushSize;
+	public String principalRoles;
+	public String recipientRoles;
+	public boolean incremental;
+	public int fullSweepDays;
 	public SyncStatus syncstatus;
 	
 	public ScheduleConfiguration()
@@ -21,6 +30,15 @@ public class ScheduleConfiguration
 		limit = false;
 		hours = 1;
 		minutes = 0;
+		queuePartitions = 1;
+		newFilesWorkers = 1;
+		updateValidators = 1;
+		verifyExisting = false;
+		insertFlushSize = 500;
+		principalRoles = "instructor";
+		recipientRoles = "UBC_Instructor";
+		incremental = false;
+		fullSweepDays = 7;
 		syncstatus = new SyncStatus();
 	}
 }
@@ -6,7 +6,9 @@ import blackboard.platform.context.Context;
 import blackboard.platform.context.ContextManagerFactory;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.CourseFiles;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.FileList;
+import ca.ubc.ctlt.copyalerts.db.AlertSummaryCache;
 import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
 import com.google.gson.Gson;
 import org.restlet.data.Status;
 import org.restlet.ext.json.JsonRepresentation;
@@ -16,6 +18,8 @@ import org.restlet.resource.ServerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Callable;
+
 public class FileListResource extends ServerResource
 {
 	private final static Logger logger = LoggerFactory.getLogger(FileListResource.class);
@@ -62,16 +66,29 @@ public class FileListResource extends ServerResource
 				return new JsonRepresentation(gson.toJson(ret));
 			}
 			else
-			{ // wants all the courses
-				FileList ret = ft.load(userid);
-				Gson gson = new Gson();
+			{ // wants all the courses, this is loaded on every portal page view, so serve it from the cache if we can
+				final FilesTable table = ft;
+				final String id = userid;
+				String json = AlertSummaryCache.getInstance().get(userid, new Callable<String>()
+				{
+					@Override
+					public String call() throws PersistenceException
+					{
+						FileList ret = table.load(id);
+						Gson gson = new Gson();
+						return gson.toJson(ret);
+					}
+				});
 				getResponse().setStatus(Status.SUCCESS_OK);
-				return new JsonRepresentation(gson.toJson(ret));
+				return new JsonRepresentation(json);
 			}
 		} catch (PersistenceException e) {
 			logger.error(e.getMessage(), e);
 			getResponse().setStatus(Status.SERVER_ERROR_INTERNAL);
-		} 
+		} catch (InaccessibleDbException e) {
+			logger.error(e.getMessage(), e);
+			getResponse().setStatus(Status.SERVER_ERROR_INTERNAL);
+		}
 		return null;
 	}
 }
@@ -10,34 +10,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.ProcessFiles;
-import ca.ubc.ctlt.copyalerts.configuration.SavedConfiguration;
-import ca.ubc.ctlt.copyalerts.db.FilesTable;
-import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
 import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
-import ca.ubc.ctlt.copyalerts.indexer.IndexGenerator;
+import ca.ubc.ctlt.copyalerts.indexer.OnDemandBuffer;
 
 import com.google.gson.Gson;
 
-import blackboard.cms.filesystem.CSContext;
-import blackboard.cms.filesystem.CSEntry;
-import blackboard.cms.filesystem.CSFile;
-import blackboard.persist.PersistenceException;
-
 public class ProcessFilesResource extends ServerResource
 {
 	private final static Logger logger = LoggerFactory.getLogger(ProcessFilesResource.class);
 	
+	/**
+	 * Queue up the files to be checked and return right away with 202 Accepted, OnDemandBuffer does the checking
+	 * in the background. Requests with more than CSIndexJob.BATCHSIZE files are refused with 413.
+	 */
 	@Post("json")
 	public JsonRepresentation processFiles(JsonRepresentation data)
 	{
-		SavedConfiguration config;
 		String json;
-		CSContext csCtx;
 		try
 		{
-			config = SavedConfiguration.getInstance();
-			csCtx = CSContext.getContext();
-			csCtx.isSuperUser(true);
 			json = data.getText();
 		} catch (IOException e)
 		{
@@ -49,36 +40,17 @@ public class ProcessFilesResource extends ServerResource
 		Gson gson = new Gson();
 		ProcessFiles pf = gson.fromJson(json, ProcessFiles.class);
 
-		IndexGenerator gen;
-		try
-		{
-			gen = new IndexGenerator(config.getAttributes());
-		} catch (PersistenceException e)
-		{
-			logger.error(e.getMessage(), e);
-			getResponse().setStatus(Status.SERVER_ERROR_INTERNAL);
+		if (pf.files.size() > CSIndexJob.BATCHSIZE)
+		{ // only allow real time updates if they're not too large, the caller needs to know these weren't queued
+			getResponse().setStatus(Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE,
+					"At most " + CSIndexJob.BATCHSIZE + " files per request, none of the " + pf.files.size() +
+					" files were queued");
 			return null;
 		}
-		FilesTable ft = new FilesTable();
-
-		if (pf.files.size() > CSIndexJob.BATCHSIZE) return null; // only allow real time updates if they're not too large
-
-		for (String file : pf.files)
-		{
-			if (file.contains("xid-")) continue; // make sure to skip special xid files
-			CSEntry entry = csCtx.findEntry(file);
-			if (entry == null) continue; // didn't find the file
-			if (entry instanceof CSFile)
-			{ // only process if it's a file
-				CSFile csf = (CSFile) entry;
-				if (gen.fileIsTagged(csf))
-				{ // the file is now tagged, so remove it from the database
-					ft.deleteFile(file);
-					logger.debug("OnDemandIndexer - File removed " + file);
-				}
-			}
-		}
 
+		int accepted = OnDemandBuffer.getInstance().offer(pf.files);
+		logger.debug("OnDemandIndexer - queued " + accepted + " of " + pf.files.size() + " files");
+		getResponse().setStatus(Status.SUCCESS_ACCEPTED);
 		return null;
 	}
 
@@ -3,8 +3,10 @@ package ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig;
 import org.restlet.Application;
 import org.restlet.Restlet;
 import ca.ubc.ctlt.copyalerts.RestAPI.AuthRouter;
+import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.ExportResource;
 import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.HostResource;
 import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.MetadataResource;
+import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.MetricsResource;
 import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.ResetResource;
 import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.ScheduleResource;
 import ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources.StatusResource;
@@ -25,6 +27,8 @@ public class SystemConfigApp extends Application
         router.attach("/host", HostResource.class);
         router.attach("/schedule", ScheduleResource.class);
         router.attach("/resetdb", ResetResource.class);
+        router.attach("/export", ExportResource.class);
+        router.attach("/metrics", MetricsResource.class);
 
         return router;
     }
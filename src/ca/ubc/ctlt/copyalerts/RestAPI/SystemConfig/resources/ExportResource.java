@@ -0,0 +1,157 @@
+package ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.restlet.data.Disposition;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.WriterRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
+import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
+
+/**
+ * Export every file that still needs to be tagged, as csv or newline delimited json. The rows are written out as
+ * they're read from the database, so the whole list is never held in memory.
+ *
+ * Query parameters:
+ * format - csv (default) or json
+ * course - only courses with a name starting with this, e.g.: CL.UBC.MATH
+ * term - only courses from this term, e.g.: 2012W2
+ */
+public class ExportResource extends ServerResource
+{
+	private final static Logger logger = LoggerFactory.getLogger(ExportResource.class);
+
+	private final static MediaType NDJSON = new MediaType("application/x-ndjson");
+
+	@Get
+	public Representation export()
+	{
+		String format = getQueryValue("format");
+		final String course = getQueryValue("course");
+		final String term = getQueryValue("term");
+		final boolean json;
+		if (format == null || format.equals("csv"))
+		{
+			json = false;
+		}
+		else if (format.equals("json"))
+		{
+			json = true;
+		}
+		else
+		{
+			getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			return null;
+		}
+
+		// the query only runs once restlet asks for the body, by then the response status has already been sent
+		Representation ret = new WriterRepresentation(json ? NDJSON : MediaType.TEXT_CSV)
+		{
+			@Override
+			public void write(Writer writer) throws IOException
+			{
+				FilesTable fileTable = new FilesTable();
+				FilesTable.ExportWriter rowWriter = json ? new JsonRowWriter(writer) : new CsvRowWriter(writer);
+				try
+				{
+					fileTable.export(course, term, rowWriter);
+				} catch (InaccessibleDbException e)
+				{
+					logger.error(e.getMessage(), e);
+					throw new IOException("Export failed", e);
+				}
+				writer.flush();
+			}
+		};
+		Disposition disposition = new Disposition(Disposition.TYPE_ATTACHMENT);
+		disposition.setFilename(json ? "untagged_files.json" : "untagged_files.csv");
+		ret.setDisposition(disposition);
+		return ret;
+	}
+
+	/**
+	 * Pushes the output to the client every batch, so it's sent in chunks instead of piling up in a buffer.
+	 */
+	private static abstract class RowWriter implements FilesTable.ExportWriter
+	{
+		protected Writer writer;
+		private int count = 0;
+
+		private RowWriter(Writer writer)
+		{
+			this.writer = writer;
+		}
+
+		protected void rowWritten() throws IOException
+		{
+			count++;
+			if (count % CSIndexJob.BATCHSIZE == 0)
+			{
+				writer.flush();
+			}
+		}
+	}
+
+	private static class CsvRowWriter extends RowWriter
+	{
+		private CsvRowWriter(Writer writer) throws IOException
+		{
+			super(writer);
+			writer.write("userid,coursename,course,filepath,fileid\r\n");
+		}
+
+		@Override
+		public void write(String userid, String courseName, String course, String filepath, String fileid) throws IOException
+		{
+			writer.write(escape(userid) + "," + escape(courseName) + "," + escape(course) + "," + escape(filepath) + "," +
+					escape(fileid) + "\r\n");
+			rowWritten();
+		}
+
+		/**
+		 * Quote the value if it has characters that'd break the csv format.
+		 */
+		private String escape(String value)
+		{
+			if (value == null)
+			{
+				return "";
+			}
+			if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r"))
+			{
+				return "\"" + value.replace("\"", "\"\"") + "\"";
+			}
+			return value;
+		}
+	}
+
+	private static class JsonRowWriter extends RowWriter
+	{
+		private Gson gson = new Gson();
+
+		private JsonRowWriter(Writer writer)
+		{
+			super(writer);
+		}
+
+		@Override
+		public void write(String userid, String courseName, String course, String filepath, String fileid) throws IOException
+		{
+			writer.write("{\"userid\":" + gson.toJson(userid) + ",\"coursename\":" + gson.toJson(courseName) +
+					",\"course\":" + gson.toJson(course) + ",\"filepath\":" + gson.toJson(filepath) +
+					",\"fileid\":" + gson.toJson(fileid) + "}\n");
+			rowWritten();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package ca.ubc.ctlt.copyalerts.RestAPI.SystemConfig.resources;
+
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+import com.google.gson.Gson;
+
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
+
+/**
+ * Throughput, batch latency and cache numbers for the indexing job running on this host, the same ones published
+ * over JMX.
+ */
+public class MetricsResource extends ServerResource
+{
+	@Get("json")
+	public Representation getMetrics()
+	{
+		Gson gson = new Gson();
+		return new JsonRepresentation(gson.toJson(IndexMetrics.getInstance().getSnapshot()));
+	}
+}
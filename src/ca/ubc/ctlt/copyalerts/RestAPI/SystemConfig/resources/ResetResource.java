@@ -5,7 +5,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 import blackboard.persist.PersistenceRuntimeException;
+import ca.ubc.ctlt.copyalerts.db.AlertSummaryCache;
 import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.db.ProgressCounters;
 import ca.ubc.ctlt.copyalerts.db.QueueTable;
 import ca.ubc.ctlt.copyalerts.db.entities.File;
 import ca.ubc.ctlt.copyalerts.db.entities.Host;
@@ -62,6 +64,14 @@ public class ResetResource extends ServerResource
 		{
 			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
 		}
+		AlertSummaryCache.getInstance().invalidateAll();
+		try
+		{ // tables are empty now
+			ProgressCounters.getInstance().reconcile();
+		} catch (InaccessibleDbException e)
+		{
+			logger.error(e.getMessage(), e);
+		}
 		
 		// re-add this host to the database
 		HostsTable hostTable;
@@ -14,6 +14,8 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.Progress;
+import ca.ubc.ctlt.copyalerts.JsonIntermediate.ProgressStream;
+import ca.ubc.ctlt.copyalerts.indexer.ProgressEvents;
 import ca.ubc.ctlt.copyalerts.scheduler.SchedulerManager;
 
 import java.sql.Timestamp;
@@ -25,9 +27,6 @@ public class StatusResource extends ServerResource
 {
 	private final static Logger logger = LoggerFactory.getLogger(StatusResource.class);
 
-	private FilesTable fileTable = new FilesTable();
-	private QueueTable queueTable = new QueueTable();
-
 	@Get("json")
 	public Representation getStatusDisplay()
 	{
@@ -48,12 +47,44 @@ public class StatusResource extends ServerResource
 			}
 		}
 		else if (action.equals("progress"))
-		{ // return the progress report through counts on the file and queue tables
-			Progress progress = new Progress();
+		{ // return the progress report through the counters kept by the indexer, counting the tables is too slow
+			try
+			{
+				Progress progress = ProgressCounters.getInstance().getProgress();
+				Gson gson = new Gson();
+				return new JsonRepresentation(gson.toJson(progress));
+			} catch (InaccessibleDbException e)
+			{
+				logger.error(e.getMessage(), e);
+				getResponse().setStatus(Status.SERVER_ERROR_INTERNAL);
+				return null;
+			}
+		}
+		else if (action.equals("events"))
+		{ // wait for progress updates from the indexing job, only hits the database when the job publishes
+			String instance = getQueryValue("instance");
+			long after;
+			long wait;
+			try
+			{
+				after = Long.parseLong(getQuery().getFirstValue("after", "0"));
+				wait = Long.parseLong(getQuery().getFirstValue("wait", String.valueOf(ProgressEvents.MAX_WAIT_MILLIS)));
+			} catch (NumberFormatException e)
+			{
+				getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+				return null;
+			}
+			ProgressStream stream = ProgressEvents.getInstance().await(instance == null ? "" : instance, after, wait);
+			Gson gson = new Gson();
+			return new JsonRepresentation(gson.toJson(stream));
+		}
+		else if (action.equals("cache"))
+		{ // return hit ratio and latency for our caches
+			HashMap<String, Object> ret = new HashMap<>();
+			ret.put("alertSummary", AlertSummaryCache.getInstance().getStats());
+			ret.put("courses", CourseCache.getInstance().getStats());
 			Gson gson = new Gson();
-			progress.fileCount = fileTable.getCount();
-			progress.queueCount = queueTable.getCount();
-			return new JsonRepresentation(gson.toJson(progress));
+			return new JsonRepresentation(gson.toJson(ret));
 		}
 		else if (action.equals("stop"))
 		{ // stop the current indexing process, doesn't work if not on same server
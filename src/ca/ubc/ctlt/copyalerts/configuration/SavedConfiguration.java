@@ -7,7 +7,10 @@ import blackboard.persist.metadata.AttributeDefinition;
 import blackboard.platform.forms.Form;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.ScheduleConfiguration;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.SyncStatus;
+import ca.ubc.ctlt.copyalerts.db.DbInit;
 import ca.ubc.ctlt.copyalerts.db.StatusTable;
+import ca.ubc.ctlt.copyalerts.indexer.CourseLookupCache;
+import ca.ubc.ctlt.copyalerts.indexer.PrincipalParser;
 import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +19,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -33,6 +37,19 @@ public class SavedConfiguration
 	private final static String HOURS_CONFIG = "hours"; // the limiting hours
 	private final static String MINUTES_CONFIG = "minutes"; // the limiting minutes
 	private final static String TEMPLATE_CONFIG = "metadata_template_id";	// key to access the stored attribute ids
+	private final static String QUEUE_PARTITIONS_CONFIG = "queue_partitions"; // how many parallel scans to use for queue generation
+	private final static String NEW_FILES_WORKERS_CONFIG = "new_files_workers"; // how many threads to use for adding new files
+	private final static String UPDATE_VALIDATORS_CONFIG = "update_validators"; // how many threads to use for checking existing files
+	private final static String VERIFY_EXISTING_CONFIG = "verify_existing"; // whether to recheck every existing file instead of sweeping
+	private final static String INSERT_FLUSH_SIZE_CONFIG = "insert_flush_size"; // how many rows bulk inserts send at a time
+	private final static String PRINCIPAL_ROLES_CONFIG = "principal_roles"; // comma separated course roles on a file whose members get alerts
+	private final static String RECIPIENT_ROLES_CONFIG = "recipient_roles"; // comma separated course membership roles that get alerts
+	private final static String INCREMENTAL_CONFIG = "incremental"; // whether runs between full sweeps only look at new files
+	private final static String FULL_SWEEP_DAYS_CONFIG = "full_sweep_days"; // how often to do a full sweep in incremental mode
+
+	// Partition resume data is saved as json in the status table's queue_partitions column, nvarchar(2000). A
+	// partition takes at most about 165 characters, so this is as many as we can be sure will fit.
+	public final static int MAX_QUEUE_PARTITIONS = 12;
 
 	// cause properties are always string, we're going to have to need a delimiter for array conversion for attributes
 //	public final static String DELIM = "	";
@@ -44,6 +61,12 @@ public class SavedConfiguration
 	// allows easy serialization to json for schedule configurations
 	private ScheduleConfiguration config = new ScheduleConfiguration();
 
+	// Attributes resolved from the metadata template and the template id they came from, guarded by attributesLock.
+	// Loading the form is expensive and the template rarely changes, see getAttributes().
+	private final Object attributesLock = new Object();
+	private String attributesTemplateId = null;
+	private ArrayList<String> attributes = null;
+
 
 	private SavedConfiguration()
 	{
@@ -67,6 +90,7 @@ public class SavedConfiguration
 			prop.clear();
 			config.reset();
 			statusTable.reset();
+			invalidateAttributes();
 			load();
 		} catch (IOException e)
 		{
@@ -99,6 +123,42 @@ public class SavedConfiguration
 			config.limit = Boolean.parseBoolean(prop.getProperty(LIMIT_CONFIG));
 			config.hours = Integer.parseInt(prop.getProperty(HOURS_CONFIG));
 			config.minutes = Integer.parseInt(prop.getProperty(MINUTES_CONFIG));
+			config.queuePartitions = getIntProperty(QUEUE_PARTITIONS_CONFIG, 1);
+			config.newFilesWorkers = getIntProperty(NEW_FILES_WORKERS_CONFIG, 1);
+			config.updateValidators = getIntProperty(UPDATE_VALIDATORS_CONFIG, 1);
+			config.verifyExisting = Boolean.parseBoolean(prop.getProperty(VERIFY_EXISTING_CONFIG));
+			config.insertFlushSize = getIntProperty(INSERT_FLUSH_SIZE_CONFIG, DbInit.DEFAULT_INSERT_FLUSH_SIZE);
+			config.principalRoles = prop.getProperty(PRINCIPAL_ROLES_CONFIG, PrincipalParser.DEFAULT_ROLES);
+			config.recipientRoles = prop.getProperty(RECIPIENT_ROLES_CONFIG, CourseLookupCache.DEFAULT_ROLE);
+			config.incremental = Boolean.parseBoolean(prop.getProperty(INCREMENTAL_CONFIG));
+			config.fullSweepDays = getIntProperty(FULL_SWEEP_DAYS_CONFIG, 7);
+			// the db layer can't see the configuration, so hand it the settings it needs
+			DbInit.setInsertFlushSize(getInsertFlushSize());
+			PrincipalParser.getInstance().setRoles(getPrincipalRoles());
+		}
+	}
+
+	/**
+	 * Read an integer setting, falling back to the default if it was never saved, e.g.: a setting added after
+	 * the configuration was first created.
+	 * @param key property key
+	 * @param defaultValue value to use if the property is missing or invalid
+	 * @return the property value
+	 */
+	private int getIntProperty(String key, int defaultValue)
+	{
+		String value = prop.getProperty(key);
+		if (value == null)
+		{
+			return defaultValue;
+		}
+		try
+		{
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e)
+		{
+			logger.warn("Invalid value " + value + " for " + key + ", using default " + defaultValue);
+			return defaultValue;
 		}
 	}
 
@@ -125,6 +185,15 @@ public class SavedConfiguration
 		prop.setProperty(LIMIT_CONFIG, Boolean.toString(config.limit));
 		prop.setProperty(HOURS_CONFIG, Integer.toString(config.hours));
 		prop.setProperty(MINUTES_CONFIG, Integer.toString(config.minutes));
+		prop.setProperty(QUEUE_PARTITIONS_CONFIG, Integer.toString(config.queuePartitions));
+		prop.setProperty(NEW_FILES_WORKERS_CONFIG, Integer.toString(config.newFilesWorkers));
+		prop.setProperty(UPDATE_VALIDATORS_CONFIG, Integer.toString(config.updateValidators));
+		prop.setProperty(VERIFY_EXISTING_CONFIG, Boolean.toString(config.verifyExisting));
+		prop.setProperty(INSERT_FLUSH_SIZE_CONFIG, Integer.toString(config.insertFlushSize));
+		prop.setProperty(PRINCIPAL_ROLES_CONFIG, config.principalRoles == null ? "" : config.principalRoles);
+		prop.setProperty(RECIPIENT_ROLES_CONFIG, config.recipientRoles == null ? "" : config.recipientRoles);
+		prop.setProperty(INCREMENTAL_CONFIG, Boolean.toString(config.incremental));
+		prop.setProperty(FULL_SWEEP_DAYS_CONFIG, Integer.toString(config.fullSweepDays));
 	}
 
 	/**
@@ -171,6 +240,8 @@ public class SavedConfiguration
 	public void saveMetadataTemplate(String template) throws IOException
 	{
 		prop.setProperty(TEMPLATE_CONFIG, template);
+		// even if it's the same template, it might have been saved because its attributes changed
+		invalidateAttributes();
 		save();
 	}
 
@@ -243,13 +314,157 @@ public class SavedConfiguration
 	}
 
 	/**
-	 * @return the attributes
+	 * The number of partitions to split queue generation into, each partition is scanned in parallel
+	 * on its own database connection.
+	 * @return the number of partitions, between 1 and MAX_QUEUE_PARTITIONS
+	 */
+	public int getQueuePartitions()
+	{
+		return Math.min(Math.max(config.queuePartitions, 1), MAX_QUEUE_PARTITIONS);
+	}
+
+	/**
+	 * The number of worker threads that process queued files concurrently when adding new files.
+	 * @return the number of workers, at least 1
+	 */
+	public int getNewFilesWorkers()
+	{
+		return Math.max(config.newFilesWorkers, 1);
+	}
+
+	/**
+	 * The number of threads that check existing files when updating the index. With more than 1, the scan of the
+	 * file table is pipelined to the checks instead of waiting on each one.
+	 * @return the number of validators, at least 1
+	 */
+	public int getUpdateValidators()
+	{
+		return Math.max(config.updateValidators, 1);
+	}
+
+	/**
+	 * Indicates whether the update stage should recheck every existing file against the content system instead of
+	 * sweeping the files that weren't confirmed during the cycle.
+	 * @return the verifyExisting
+	 */
+	public boolean isVerifyExisting()
+	{
+		return config.verifyExisting;
+	}
+
+	/**
+	 * Number of rows that bulk inserts into the queue and files tables send to the database at a time.
+	 * @return the flush size, at least 1
+	 */
+	public int getInsertFlushSize()
+	{
+		return Math.max(config.insertFlushSize, 1);
+	}
+
+	/**
+	 * Course roles in a file's access control entries whose members get alerts for the file, e.g.: instructor.
+	 * Each is matched case insensitively anywhere in the role of a G:CR principal.
+	 * @return the roles, falls back to the default if none are configured
+	 */
+	public List<String> getPrincipalRoles()
+	{
+		return splitList(config.principalRoles, PrincipalParser.DEFAULT_ROLES);
+	}
+
+	/**
+	 * Course membership roles that get alerts for files in the course, e.g.: UBC_Instructor, TA, BUILDER. These are
+	 * membership role identifiers rather than the course role names found in a file's permissions, so they're kept
+	 * separate from the principal roles: those pick the files, these pick who in the course hears about them. Changes
+	 * take effect on the next indexing run.
+	 * @return role identifiers, falls back to the default if none are configured
+	 */
+	public List<String> getRecipientRoles()
+	{
+		return splitList(config.recipientRoles, CourseLookupCache.DEFAULT_ROLE);
+	}
+
+	/**
+	 * Split a comma separated setting into a list of values.
+	 * @param value setting value
+	 * @param defaultValue used if there are no values
+	 * @return the trimmed values
+	 */
+	private List<String> splitList(String value, String defaultValue)
+	{
+		List<String> ret = new ArrayList<>();
+		if (value != null)
+		{
+			for (String item : value.split(","))
+			{
+				if (!item.trim().isEmpty())
+				{
+					ret.add(item.trim());
+				}
+			}
+		}
+		if (ret.isEmpty())
+		{
+			ret.add(defaultValue);
+		}
+		return ret;
+	}
+
+	/**
+	 * Indicates whether runs should only pick up files added since the last run, with a full sweep done
+	 * every getFullSweepDays() days.
+	 * @return the incremental
+	 */
+	public boolean isIncremental()
+	{
+		return config.incremental;
+	}
+
+	/**
+	 * In incremental mode, the number of days between full sweeps.
+	 * @return the number of days, at least 1
+	 */
+	public int getFullSweepDays()
+	{
+		return Math.max(config.fullSweepDays, 1);
+	}
+
+	/**
+	 * Get the names of the boolean attributes in the metadata template. The attributes are cached against the
+	 * template id, so only the first call after the template changes has to go to the form manager.
+	 * @return the attributes, a copy that the caller is free to change
 	 * @throws PersistenceException
 	 */
 	public ArrayList<String> getAttributes() throws PersistenceException
+	{
+		String templateId = prop.getProperty(TEMPLATE_CONFIG);
+		synchronized (attributesLock)
+		{
+			if (attributes == null || templateId == null || !templateId.equals(attributesTemplateId))
+			{
+				attributes = loadAttributes(templateId);
+				attributesTemplateId = templateId;
+			}
+			return new ArrayList<>(attributes);
+		}
+	}
+
+	/**
+	 * Forget the cached attributes, the next getAttributes() call loads them from the template again. The cache
+	 * already notices when the template id changes, this is for changes to the template itself.
+	 */
+	public void invalidateAttributes()
+	{
+		synchronized (attributesLock)
+		{
+			attributes = null;
+			attributesTemplateId = null;
+		}
+	}
+
+	private ArrayList<String> loadAttributes(String templateId) throws PersistenceException
 	{
 		// find form by form ID
-		Id formId = Id.generateId(Form.DATA_TYPE, prop.getProperty(TEMPLATE_CONFIG));
+		Id formId = Id.generateId(Form.DATA_TYPE, templateId);
 		Form form = CSFormManagerFactory.getInstance().loadFormById(formId);
 
 		ArrayList<String> ret = new ArrayList<>();
@@ -262,6 +477,7 @@ public class SavedConfiguration
 				ret.add(ad.getName());
 			}
 		}
+		logger.debug("Loaded " + ret.size() + " attributes from metadata template " + templateId);
 
 		return ret;
 	}
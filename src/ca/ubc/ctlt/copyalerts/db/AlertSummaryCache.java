@@ -0,0 +1,124 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import blackboard.persist.PersistenceException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the rendered json of each user's first page of files, which is what the alerts module on the
+ * portal asks for every time the page loads.
+ *
+ * Entries for a user are invalidated when FilesTable adds or removes rows for that user. The invalidation only
+ * reaches the node that made the change though, other nodes in the cluster rely on the TTL to pick it up.
+ *
+ * Guava ignores an invalidate for a key that is still being loaded, so a change made while a user's json was
+ * being rendered would leave the old json cached until the TTL. To catch that, every invalidate bumps a version
+ * counter for the user, and a request that sees the version change while it was getting the json invalidates
+ * again once the json is in the cache.
+ */
+public class AlertSummaryCache
+{
+	public final static int MAX_USERS = 5000;
+	public final static int TTL_MINUTES = 5;
+	// users are spread over this many version counters, a shared counter only costs an extra render now and then
+	private final static int VERSION_STRIPES = 64;
+
+	private static AlertSummaryCache instance = null;
+
+	private Cache<String, String> summaries = CacheBuilder.newBuilder()
+			.maximumSize(MAX_USERS)
+			.expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+	private AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+	// how long it takes to answer a request, whether it was served from the cache or not
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong requestNanos = new AtomicLong();
+
+	private AlertSummaryCache()
+	{
+	}
+
+	public static synchronized AlertSummaryCache getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new AlertSummaryCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Get the first page json for the given user, rendering it if we don't have it.
+	 * @param userid user id
+	 * @param renderer generates the json if it's not in the cache
+	 * @return json
+	 * @throws PersistenceException
+	 */
+	public String get(String userid, Callable<String> renderer) throws PersistenceException
+	{
+		long start = System.nanoTime();
+		int stripe = stripe(userid);
+		long version = versions.get(stripe);
+		try
+		{
+			String ret = CacheSupport.get(summaries, userid, renderer);
+			if (versions.get(stripe) != version)
+			{ // invalidated while we were getting it, the cached json might be from before the change
+				summaries.invalidate(userid);
+			}
+			return ret;
+		} finally
+		{
+			requests.incrementAndGet();
+			requestNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	public void invalidate(String userid)
+	{
+		versions.incrementAndGet(stripe(userid));
+		summaries.invalidate(userid);
+	}
+
+	public void invalidate(Collection<String> userids)
+	{
+		for (String userid : userids)
+		{
+			versions.incrementAndGet(stripe(userid));
+		}
+		summaries.invalidateAll(userids);
+	}
+
+	public void invalidateAll()
+	{
+		for (int i = 0; i < VERSION_STRIPES; i++)
+		{
+			versions.incrementAndGet(i);
+		}
+		summaries.invalidateAll();
+	}
+
+	/**
+	 * @return hit ratio and latency numbers, for display
+	 */
+	public Map<String, Object> getStats()
+	{
+		long count = requests.get();
+		Map<String, Object> ret = CacheSupport.getStats(summaries);
+		ret.put("avgRequestMillis", count == 0 ? 0 : requestNanos.get() / (double) count / 1000000.0);
+		return ret;
+	}
+
+	private int stripe(String userid)
+	{
+		return (userid.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+	}
+}
@@ -0,0 +1,74 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import blackboard.persist.PersistenceException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The bits that all of our Guava caches share: getting a value with the loader's PersistenceException passed
+ * through as is, and the numbers we show for each cache on the status page.
+ */
+public class CacheSupport
+{
+	private CacheSupport()
+	{
+	}
+
+	/**
+	 * Get the value for the key, loading it if we don't have it.
+	 * @param cache cache to look in
+	 * @param key key
+	 * @param loader loads the value if it's not in the cache
+	 * @return value
+	 * @throws PersistenceException if the loader failed
+	 */
+	public static <K, V> V get(Cache<K, V> cache, K key, Callable<? extends V> loader) throws PersistenceException
+	{
+		try
+		{
+			return cache.get(key, loader);
+		} catch (ExecutionException e)
+		{
+			throw toPersistenceException(e.getCause());
+		} catch (UncheckedExecutionException e)
+		{
+			throw toPersistenceException(e.getCause());
+		}
+	}
+
+	/**
+	 * @param cause why a cache load failed
+	 * @return the cause if it was already a PersistenceException, otherwise the cause wrapped in one
+	 */
+	public static PersistenceException toPersistenceException(Throwable cause)
+	{
+		if (cause instanceof PersistenceException)
+		{
+			return (PersistenceException) cause;
+		}
+		return new PersistenceException(cause);
+	}
+
+	/**
+	 * @param cache a cache built with recordStats()
+	 * @return hit, miss and eviction numbers, for display
+	 */
+	public static Map<String, Object> getStats(Cache<?, ?> cache)
+	{
+		CacheStats stats = cache.stats();
+		Map<String, Object> ret = new HashMap<>();
+		ret.put("size", cache.size());
+		ret.put("hits", stats.hitCount());
+		ret.put("misses", stats.missCount());
+		ret.put("evictions", stats.evictionCount());
+		ret.put("hitRate", stats.hitRate());
+		ret.put("avgLoadMillis", stats.averageLoadPenalty() / 1000000.0);
+		return ret;
+	}
+}
@@ -1,64 +1,156 @@
 package ca.ubc.ctlt.copyalerts.db;
 
-import java.util.HashMap;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import blackboard.data.course.Course;
+import blackboard.persist.Id;
 import blackboard.persist.KeyNotFoundException;
 import blackboard.persist.PersistenceException;
 import blackboard.persist.course.CourseDbLoader;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+/**
+ * Process wide cache of the course information we need, keyed by course name (the course id, e.g.:
+ * CL.UBC.MATH.101.201.2012W2.13204). Courses that don't exist are remembered too, so that we don't keep
+ * asking the database about deleted courses. Entries expire after a while so that changes to courses get
+ * picked up during long indexing runs.
+ */
 public class CourseCache
 {
-	private class CourseInfo
+	public final static int MAX_COURSES = 20000;
+	public final static int TTL_MINUTES = 30;
+
+	/**
+	 * The parts of a course that we need.
+	 */
+	public static class CourseInfo
 	{
-		public String courseId;
-		public String courseTitle;
+		private Id id;
+		private String courseName;
+		private String title;
+		private boolean available;
+		private Calendar endDate;
+
+		private CourseInfo(Course course)
+		{
+			this.id = course.getId();
+			this.courseName = course.getCourseId();
+			this.title = course.getTitle();
+			this.available = course.getIsAvailable();
+			this.endDate = course.getEndDate();
+		}
+
+		public Id getId()
+		{
+			return id;
+		}
+
+		public String getCourseName()
+		{
+			return courseName;
+		}
+
+		public String getTitle()
+		{
+			return title;
+		}
+
+		/**
+		 * @return true if the course is available and hasn't ended yet
+		 */
+		public boolean isActive()
+		{
+			return available && (endDate == null || !endDate.before(Calendar.getInstance()));
+		}
 	}
 
-	private HashMap<String, CourseInfo> courses = new HashMap<String, CourseInfo>();
+	private static CourseCache instance = null;
 
-	public boolean addIfValidCourse(String courseName) throws PersistenceException
+	private LoadingCache<String, Optional<CourseInfo>> courses = CacheBuilder.newBuilder()
+			.maximumSize(MAX_COURSES)
+			.expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+			.recordStats()
+			.build(new CacheLoader<String, Optional<CourseInfo>>()
+			{
+				@Override
+				public Optional<CourseInfo> load(String courseName) throws PersistenceException
+				{
+					try
+					{
+						return Optional.of(new CourseInfo(CourseDbLoader.Default.getInstance().loadByCourseId(courseName)));
+					} catch (KeyNotFoundException e)
+					{ // remember that the course doesn't exist
+						return Optional.absent();
+					}
+				}
+			});
+
+	private CourseCache()
 	{
-		if (courses.containsKey(courseName))
+	}
+
+	public static synchronized CourseCache getInstance()
+	{
+		if (instance == null)
 		{
-			return true;
+			instance = new CourseCache();
 		}
+		return instance;
+	}
 
+	/**
+	 * @param courseName course id, e.g.: CL.UBC.MATH.101.201.2012W2.13204
+	 * @return course info, null if the course doesn't exist
+	 * @throws PersistenceException
+	 */
+	public CourseInfo getCourse(String courseName) throws PersistenceException
+	{
 		try
 		{
-			CourseDbLoader cload = CourseDbLoader.Default.getInstance();
-			Course course = cload.loadByCourseId(courseName);
-			CourseInfo info = new CourseInfo();
-			info.courseId = course.getId().toExternalString();
-			info.courseTitle = course.getTitle();
-			courses.put(courseName, info);
-			return true;
-		} catch(KeyNotFoundException e)
+			return courses.get(courseName).orNull();
+		} catch (ExecutionException e)
+		{
+			throw CacheSupport.toPersistenceException(e.getCause());
+		} catch (UncheckedExecutionException e)
 		{
-			return false;
+			throw CacheSupport.toPersistenceException(e.getCause());
 		}
 	}
 
+	public boolean addIfValidCourse(String courseName) throws PersistenceException
+	{
+		return getCourse(courseName) != null;
+	}
+
 	public String getCourseTitle(String courseName) throws PersistenceException
 	{
-		if (!courses.containsKey(courseName))
-		{
-			if(!addIfValidCourse(courseName)) {
-				return null;
-			}
-		}
-		return courses.get(courseName).courseTitle;
+		CourseInfo course = getCourse(courseName);
+		return course == null ? null : course.getTitle();
 	}
 
 	public String getCourseId(String courseName) throws PersistenceException
 	{
-		if (!courses.containsKey(courseName))
-		{
-			if(!addIfValidCourse(courseName)) {
-				return null;
-			}
-		}
-		return courses.get(courseName).courseId;
+		CourseInfo course = getCourse(courseName);
+		return course == null ? null : course.getId().toExternalString();
 	}
 
+	public void invalidateAll()
+	{
+		courses.invalidateAll();
+	}
+
+	/**
+	 * @return hit, miss and eviction numbers, for display
+	 */
+	public Map<String, Object> getStats()
+	{
+		return CacheSupport.getStats(courses);
+	}
 }
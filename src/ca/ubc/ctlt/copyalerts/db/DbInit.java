@@ -10,7 +10,11 @@ import java.util.Properties;
 
 public class DbInit
 {
+	// default number of rows sent to the database at a time by bulk inserts
+	public final static int DEFAULT_INSERT_FLUSH_SIZE = 500;
+
 	private static ConnectionManager cm = BbDatabase.getDefaultInstance().getConnectionManager();
+	private static volatile int insertFlushSize = DEFAULT_INSERT_FLUSH_SIZE;
 	
 	public static ConnectionManager getConnectionManager()
 	{
@@ -55,5 +59,18 @@ public class DbInit
 
 		return cm;
 	}
-	
+
+	public static int getInsertFlushSize()
+	{
+		return insertFlushSize;
+	}
+
+	/**
+	 * Set by the saved configuration whenever it's loaded.
+	 * @param size number of rows, at least 1
+	 */
+	public static void setInsertFlushSize(int size)
+	{
+		insertFlushSize = Math.max(size, 1);
+	}
 }
@@ -0,0 +1,53 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The SQL behind FilesTable's generation stamps and sweeps. Kept apart from FilesTable so that it can be checked
+ * against a database without setting up the Blackboard persistence layer.
+ */
+class FilesQueries
+{
+	// entries that weren't confirmed in the given generation
+	final static String SWEEP = "generation < ?";
+	// Oracle doesn't allow more than 1000 items in an IN list
+	final static int MAX_IN_LIST = 1000;
+
+	private FilesQueries()
+	{
+	}
+
+	/**
+	 * Mark the given entries as confirmed in this generation.
+	 * @param conn connection to use
+	 * @param tableName files table name
+	 * @param pk1s primary keys of the entries
+	 * @param generation the current cycle's generation
+	 * @throws SQLException
+	 */
+	static void stampGeneration(Connection conn, String tableName, List<Long> pk1s, long generation)
+			throws SQLException
+	{
+		for (int i = 0; i < pk1s.size(); i += MAX_IN_LIST)
+		{
+			List<Long> chunk = pk1s.subList(i, Math.min(i + MAX_IN_LIST, pk1s.size()));
+			StringBuilder query = new StringBuilder("UPDATE " + tableName + " SET generation = ? WHERE pk1 IN (");
+			for (int j = 0; j < chunk.size(); j++)
+			{
+				query.append(j == 0 ? "?" : ",?");
+			}
+			query.append(")");
+			PreparedStatement stmt = conn.prepareStatement(query.toString());
+			stmt.setLong(1, generation);
+			for (int j = 0; j < chunk.size(); j++)
+			{
+				stmt.setLong(j + 2, chunk.get(j));
+			}
+			stmt.executeUpdate();
+			stmt.close();
+		}
+	}
+}
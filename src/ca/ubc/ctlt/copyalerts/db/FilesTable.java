@@ -1,9 +1,13 @@
 package ca.ubc.ctlt.copyalerts.db;
 
 import blackboard.cms.filesystem.CSFile;
+import blackboard.data.course.Course;
+import blackboard.db.ConnectionManager;
+import blackboard.db.ConnectionNotAvailableException;
 import blackboard.persist.Id;
 import blackboard.persist.KeyNotFoundException;
 import blackboard.persist.PersistenceException;
+import blackboard.persist.course.CourseDbLoader;
 import blackboard.persist.dao.impl.SimpleDAO;
 import blackboard.persist.impl.DeleteQuery;
 import blackboard.persist.impl.SimpleCountQuery;
@@ -14,9 +18,16 @@ import blackboard.platform.query.Criteria;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.CourseFiles;
 import ca.ubc.ctlt.copyalerts.JsonIntermediate.FileList;
 import ca.ubc.ctlt.copyalerts.db.entities.File;
+import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -27,9 +38,14 @@ public class FilesTable extends SimpleDAO<File>
 	private final static Logger logger = LoggerFactory.getLogger(FilesTable.class);
 
 	private final static int ENTRYPERPAGE = 25;
+	private final static String COURSESPATH = "/courses/";
+
+	// index workers can add files concurrently, the duplicate check is only good if no one else inserts between
+	// our check and our insert
+	private final static Object addLock = new Object();
 
 	// store mapping of course names to course title, names are id like, title is human readable
-	private CourseCache courses = new CourseCache();
+	private CourseCache courses = CourseCache.getInstance();
 
 	public FilesTable()
 	{
@@ -50,46 +66,148 @@ public class FilesTable extends SimpleDAO<File>
 		return new FileList(ret, 1, 1);
 	}
 
-	public CourseFiles loadCourseFiles(String userid, String courseId, int page) throws PersistenceException {
-		HashMap<String, CourseFiles> list = loadAll(userid);
-		if (list.containsKey(courseId))
+	/**
+	 * Load a page of the files that the given user needs to tag in the given course. Counting and paging is done
+	 * in the database, so we only ever fetch the rows that are on the page asked for.
+	 *
+	 * @param userid user id
+	 * @param courseId course id as an external string, e.g.: _123_1
+	 * @param page page, asking for a non-existent page gets the first page instead
+	 * @return course files, null if the course doesn't exist or the user has no files in it
+	 */
+	public CourseFiles loadCourseFiles(String userid, String courseId, int page) throws PersistenceException, InaccessibleDbException {
+		Course course;
+		try
 		{
-			CourseFiles cf = list.get(courseId);
-			return splitToPage(cf, page);
+			course = CourseDbLoader.Default.getInstance().loadById(Id.generateId(Course.DATA_TYPE, courseId));
+		} catch (KeyNotFoundException e)
+		{ // course could've been deleted since the files were indexed
+			return null;
 		}
-		return null;
-	}
+		String pathPattern = escapeLike(COURSESPATH + course.getCourseId() + "/") + "%";
+
+		String tableName = getDAOSupport().getMap().getTableName();
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+
+			// count first so we know how many pages there are
+			PreparedStatement countStmt = conn.prepareStatement("SELECT COUNT(*) FROM " + tableName +
+					" WHERE userid = ? AND filepath LIKE ? ESCAPE '\\'");
+			countStmt.setString(1, userid);
+			countStmt.setString(2, pathPattern);
+			ResultSet res = countStmt.executeQuery();
+			int numFiles = res.next() ? res.getInt(1) : 0;
+			res.close();
+			countStmt.close();
+			if (numFiles == 0)
+			{
+				return null;
+			}
+
+			int numPages = (int) Math.ceil(numFiles / (double) ENTRYPERPAGE);
+			if (page < 1 || page > numPages)
+			{ // trying to get a non-existent page, just return the first page
+				page = 1;
+			}
+
+			CourseFiles cf = new CourseFiles(course.getId().toExternalString(), course.getCourseId(), course.getTitle());
+			cf.numPages = numPages;
+			cf.page = page;
 
-	private boolean hasUserId(String userIdStr, List<File> files) {
-		for (File f: files) {
-			if (f.getUserId().equals(userIdStr)) {
-				return true;
+			PreparedStatement pageStmt = preparePageQuery(conn, tableName, userid, pathPattern, page);
+			res = pageStmt.executeQuery();
+			while (res.next())
+			{
+				cf.addFile(res.getString(1));
 			}
+			res.close();
+			pageStmt.close();
+			// addFile() only counts the files on this page
+			cf.numFiles = numFiles;
+
+			return cf;
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
 		}
+	}
 
-		return false;
+	/**
+	 * Prepare the query for one page of a user's files in a course, sorted by path.
+	 */
+	private PreparedStatement preparePageQuery(Connection conn, String tableName, String userid, String pathPattern,
+											   int page) throws SQLException
+	{
+		String where = " WHERE userid = ? AND filepath LIKE ? ESCAPE '\\'";
+		int offset = (page - 1) * ENTRYPERPAGE;
+		PreparedStatement stmt;
+		switch (conn.getMetaData().getDatabaseProductName())
+		{
+			case "PostgreSQL":
+				stmt = conn.prepareStatement("SELECT filepath FROM " + tableName + where +
+						" ORDER BY filepath LIMIT ? OFFSET ?");
+				stmt.setInt(3, ENTRYPERPAGE);
+				stmt.setInt(4, offset);
+				break;
+			case "Oracle":
+				stmt = conn.prepareStatement("SELECT filepath FROM (SELECT filepath, ROW_NUMBER() OVER (ORDER BY filepath) rn " +
+						"FROM " + tableName + where + ") WHERE rn > ? AND rn <= ? ORDER BY rn");
+				stmt.setInt(3, offset);
+				stmt.setInt(4, offset + ENTRYPERPAGE);
+				break;
+			default:
+				throw new RuntimeException("Unsupported database " + conn.getMetaData().getDatabaseProductName());
+		}
+		stmt.setString(1, userid);
+		stmt.setString(2, pathPattern);
+		return stmt;
+	}
+
+	/**
+	 * Escape the LIKE wildcards in the given string, backslash is used as the escape character.
+	 */
+	private String escapeLike(String str)
+	{
+		return str.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
 	}
 
 	/**
 	 * Adding files to the database in a batch operation in order to get some performance gains from compiled
-	 * statements.
+	 * statements. Safe to call from multiple threads.
+	 *
+	 * Entries that already exist are stamped with the given generation instead, so that they survive the sweep at
+	 * the end of the cycle, see sweep().
 	 *
 	 * @param filesAndUsers files and users
+	 * @param generation the current cycle's generation
 	 * @throws PersistenceException
 	 */
-	public void add(Map<CSFile, Set<Id>> filesAndUsers) throws PersistenceException {
+	public void add(Map<CSFile, Set<Id>> filesAndUsers, long generation) throws PersistenceException {
 		if (filesAndUsers.isEmpty()) {
 			return;
 		}
+		synchronized (addLock) {
+			addFiles(filesAndUsers, generation);
+		}
+	}
 
-		InsertBulkQuery insertQuery = new InsertBulkQuery(getDAOSupport().getMap());
-		int skipped = 0;
-		for (Entry<CSFile, Set<Id>> entry : filesAndUsers.entrySet())
-		{
-			CSFile file = entry.getKey();
-			Set<Id> users = entry.getValue();
+	private void addFiles(Map<CSFile, Set<Id>> filesAndUsers, long generation) throws PersistenceException {
+		long startTime = System.currentTimeMillis();
 
-			// first, make sure that we're using a valid course
+		// first, make sure that we're using valid courses
+		Map<CSFile, String> fileCourses = new LinkedHashMap<>();
+		Set<String> fileIds = new HashSet<>();
+		for (CSFile file : filesAndUsers.keySet())
+		{
 			String courseName = parseCourseName(file.getFullPath());
 			if (courseName.isEmpty()) {
 				logger.warn("Failed to parse course name in " + file.getFullPath() + "(invalid?), Skipping...");
@@ -100,44 +218,64 @@ public class FilesTable extends SimpleDAO<File>
 				logger.warn("Couldn't retrieve course " + courseName + " from cache or database(invalid?), Skipping");
 				continue;
 			}
+			fileCourses.put(file, courseName);
+			fileIds.add(file.getFileSystemEntry().getEntryID());
+		}
+
+		// check duplicates for the whole batch in one go instead of a query per file
+		Map<String, File> existing = loadExistingEntries(fileIds);
+		Set<String> seen = new HashSet<>();
+		// existing entries that this cycle hasn't confirmed yet
+		Set<Id> toStamp = new HashSet<>();
 
-			// check duplicates
+		InsertBulkQuery insertQuery = new InsertBulkQuery(getDAOSupport().getMap());
+		Set<String> changedUsers = new HashSet<>();
+		int skipped = 0;
+		for (Entry<CSFile, String> entry : fileCourses.entrySet())
+		{
+			CSFile file = entry.getKey();
+			String courseName = entry.getValue();
 			String fileId = file.getFileSystemEntry().getEntryID();
-			String[] userArray = new String[users.size()];
-			int index = 0;
-			for (Id userId: users) {
-				userArray[index] = userId.toExternalString();
-				index++;
-			}
-			SimpleSelectQuery query = new SimpleSelectQuery(this.getDAOSupport().getMap());
-			Criteria criteria = query.getCriteria();
-			criteria.add(criteria.and(
-					criteria.equal("fileId", file.getFileSystemEntry().getEntryID()),
-					criteria.in("userId", (Object[])userArray)
-			));
-			List<File> files = getDAOSupport().loadList(query);
 
-			for (Id userId : users) {
+			for (Id userId : filesAndUsers.get(file)) {
 				String userIdStr = userId.toExternalString();
-				// found duplicate, skip
-				if (hasUserId(userIdStr, files)) {
+				String key = entryKey(fileId, userIdStr);
+				// found duplicate, either already in the table or earlier in this batch, skip
+				if (!seen.add(key)) {
+					skipped++;
+					continue;
+				}
+				File old = existing.get(key);
+				if (old != null) {
+					if (old.getGeneration() != generation) {
+						toStamp.add(old.getId());
+					}
 					skipped++;
 					continue;
 				}
 
-				File f = new File(userIdStr, courses.getCourseTitle(courseName), file.getFullPath(), fileId);
+				File f = new File(userIdStr, courses.getCourseTitle(courseName), file.getFullPath(), fileId, generation);
 				insertQuery.addObject(f);
+				changedUsers.add(userIdStr);
 			}
 		}
 		if (skipped != 0) {
 			logger.debug("Skipped " + skipped + " entries as userId and fileId already exists");
 		}
-		if (insertQuery.getObjectsToInsert().size() > 0) {
+		int inserted = insertQuery.getObjectsToInsert().size();
+		if (inserted > 0) {
+			long insertStart = System.nanoTime();
 			getDAOSupport().execute(insertQuery);
+			IndexMetrics.getInstance().recordBatch(IndexMetrics.OP_FILES_ADD, System.nanoTime() - insertStart);
+			AlertSummaryCache.getInstance().invalidate(changedUsers);
+			ProgressCounters.getInstance().addFiles(inserted);
 		} else {
 			// nothing to insert, close query instead
 			insertQuery.close();
 		}
+		stampGeneration(toStamp, generation);
+		logger.debug("Added " + inserted + " entries and confirmed " + toStamp.size() + " for " +
+				filesAndUsers.size() + " files in " + (System.currentTimeMillis() - startTime) + " ms");
 
 
 //		Connection conn = null;
@@ -179,6 +317,75 @@ public class FilesTable extends SimpleDAO<File>
 //		}
 	}
 
+	/**
+	 * Find which of the given files already have entries in the table.
+	 * @param fileIds content system file ids
+	 * @return existing entries keyed by file and user, see entryKey()
+	 */
+	private Map<String, File> loadExistingEntries(Collection<String> fileIds)
+	{
+		Map<String, File> existing = new HashMap<>();
+		List<String> ids = new ArrayList<>(fileIds);
+		// Oracle doesn't allow more than 1000 items in an IN list
+		for (int i = 0; i < ids.size(); i += FilesQueries.MAX_IN_LIST)
+		{
+			List<String> chunk = ids.subList(i, Math.min(i + FilesQueries.MAX_IN_LIST, ids.size()));
+			SimpleSelectQuery query = new SimpleSelectQuery(this.getDAOSupport().getMap());
+			Criteria criteria = query.getCriteria();
+			criteria.add(criteria.in("fileId", chunk.toArray()));
+			for (File f : getDAOSupport().loadList(query)) {
+				existing.put(entryKey(f.getFileId(), f.getUserId()), f);
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Mark the given entries as confirmed in this generation.
+	 * @param ids primary keys of the entries
+	 * @param generation the current cycle's generation
+	 */
+	private void stampGeneration(Set<Id> ids, long generation) throws PersistenceException
+	{
+		if (ids.isEmpty()) {
+			return;
+		}
+		String tableName = getDAOSupport().getMap().getTableName();
+		List<Long> pk1s = new ArrayList<>();
+		for (Id id : ids) {
+			pk1s.add(getPk1(id));
+		}
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			FilesQueries.stampGeneration(conn, tableName, pk1s, generation);
+		} catch (SQLException e)
+		{
+			throw new PersistenceException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new PersistenceException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+	}
+
+	/**
+	 * Parse the raw primary key out of an Id, external ids look like _123_1 where 123 is the primary key.
+	 */
+	static long getPk1(Id id)
+	{
+		return Long.parseLong(id.toExternalString().split("_")[1]);
+	}
+
+	private String entryKey(String fileId, String userId)
+	{
+		return fileId + ":" + userId;
+	}
+
 //	/**
 //	 * Does the actual queries that adds new files into the database.
 //	 * @param file
@@ -260,10 +467,24 @@ public class FilesTable extends SimpleDAO<File>
 	public void deleteFilesByPk1(Set<Id> filesToRemove)
 	{
 		logger.debug("Batch Deleting Files From Index.");
+		if (filesToRemove.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		// need to know whose file lists are changing so their cached summaries can be dropped
+		SimpleSelectQuery select = new SimpleSelectQuery(this.getDAOSupport().getMap());
+		Criteria selectCriteria = select.getCriteria();
+		selectCriteria.add(selectCriteria.in("id", filesToRemove.toArray()));
+		List<File> removed = getDAOSupport().loadList(select);
+		Set<String> changedUsers = getUserIds(removed);
+
 		DeleteQuery query = new DeleteQuery(this.getDAOSupport().getMap());
 		Criteria criteria = query.getCriteria();
 		criteria.add(criteria.in("id", filesToRemove.toArray()));
 		this.getDAOSupport().delete(query);
+		IndexMetrics.getInstance().recordBatch(IndexMetrics.OP_FILES_DELETE, System.nanoTime() - start);
+		AlertSummaryCache.getInstance().invalidate(changedUsers);
+		ProgressCounters.getInstance().addFiles(-removed.size());
 //		Connection conn = null;
 //		String deleteQuery = "DELETE FROM "+ TABLENAME +" WHERE pk1=?";
 //		try
@@ -296,31 +517,200 @@ public class FilesTable extends SimpleDAO<File>
 //		}
 	}
 
-	public void deleteFile(String path)
+	/**
+	 * Remove all entries for the given files with a single delete, instead of one delete per file.
+	 * @param paths file paths, meant for batches of up to CSIndexJob.BATCHSIZE
+	 * @return number of rows removed
+	 */
+	public int deleteFiles(Collection<String> paths)
 	{
+		if (paths.isEmpty()) {
+			return 0;
+		}
+		// need to know whose file lists are changing so their cached summaries can be dropped
+		SimpleSelectQuery select = new SimpleSelectQuery(this.getDAOSupport().getMap());
+		Criteria selectCriteria = select.getCriteria();
+		selectCriteria.add(selectCriteria.in("filePath", paths.toArray()));
+		List<File> removed = getDAOSupport().loadList(select);
+		if (removed.isEmpty()) {
+			return 0; // nothing to delete
+		}
+
 		DeleteQuery query = new DeleteQuery(this.getDAOSupport().getMap());
 		Criteria criteria = query.getCriteria();
-		criteria.add(criteria.equal("filePath", path));
+		criteria.add(criteria.in("filePath", paths.toArray()));
 		this.getDAOSupport().delete(query);
-//		Connection conn = null;
-//		String query = "delete from "+ TABLENAME + " where filepath = ?";
-//		try
-//		{
-//			conn = cm.getConnection();
-//			PreparedStatement stmt = conn.prepareStatement(query);
-//			stmt.setString(1, path);
-//			stmt.executeUpdate();
-//		} catch (SQLException e)
-//		{
-//			throw new InaccessibleDbException("Couldn't execute query", e);
-//		} catch (ConnectionNotAvailableException e)
-//		{
-//			throw new InaccessibleDbException("Unable to connect to db", e);
-//		}
-//		finally
-//		{
-//			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
-//		}
+		AlertSummaryCache.getInstance().invalidate(getUserIds(removed));
+		ProgressCounters.getInstance().addFiles(-removed.size());
+		return removed.size();
+	}
+
+	/**
+	 * Remove all files in the given course, e.g.: when the course has ended.
+	 * @param courseName course id, e.g.: CL.UBC.MATH.101.201.2012W2.13204
+	 * @return number of rows removed
+	 * @throws InaccessibleDbException
+	 */
+	public int deleteCourseFiles(String courseName) throws InaccessibleDbException
+	{
+		String pathPattern = escapeLike(COURSESPATH + courseName + "/") + "%";
+		int deleted = deleteWhere("filepath LIKE ? ESCAPE '\\'", pathPattern);
+		logger.debug("Removed " + deleted + " files in course " + courseName);
+		return deleted;
+	}
+
+	/**
+	 * Remove all entries that weren't confirmed in the given generation. Meant to be run once a full cycle has
+	 * gone through every file, anything left over from an earlier generation is for a file that's gone, been tagged,
+	 * is in a course that's no longer active, or no longer has the user as an instructor.
+	 * @param generation the generation of the cycle that just finished
+	 * @return number of rows removed
+	 * @throws InaccessibleDbException
+	 */
+	public int sweep(long generation) throws InaccessibleDbException
+	{
+		int deleted = deleteWhere(FilesQueries.SWEEP, generation);
+		logger.debug("Swept " + deleted + " files from before generation " + generation);
+		return deleted;
+	}
+
+	/**
+	 * Delete the rows matching the given condition, which takes a single parameter.
+	 * @return number of rows removed
+	 */
+	private int deleteWhere(String condition, Object param) throws InaccessibleDbException
+	{
+		String tableName = getDAOSupport().getMap().getTableName();
+		String where = " WHERE " + condition;
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			// need to know whose file lists are changing so their cached summaries can be dropped
+			Set<String> changedUsers = new HashSet<>();
+			PreparedStatement selectStmt = conn.prepareStatement("SELECT DISTINCT userid FROM " + tableName + where);
+			selectStmt.setObject(1, param);
+			ResultSet res = selectStmt.executeQuery();
+			while (res.next())
+			{
+				changedUsers.add(res.getString(1));
+			}
+			res.close();
+			selectStmt.close();
+			if (changedUsers.isEmpty())
+			{
+				return 0;
+			}
+
+			PreparedStatement deleteStmt = conn.prepareStatement("DELETE FROM " + tableName + where);
+			deleteStmt.setObject(1, param);
+			int deleted = deleteStmt.executeUpdate();
+			deleteStmt.close();
+			AlertSummaryCache.getInstance().invalidate(changedUsers);
+			ProgressCounters.getInstance().addFiles(-deleted);
+			return deleted;
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+	}
+
+	private Set<String> getUserIds(List<File> files)
+	{
+		Set<String> ret = new HashSet<>();
+		for (File file : files) {
+			ret.add(file.getUserId());
+		}
+		return ret;
+	}
+
+	/**
+	 * Receives the rows read by export(), one at a time.
+	 */
+	public interface ExportWriter
+	{
+		void write(String userid, String courseName, String course, String filepath, String fileid) throws IOException;
+	}
+
+	/**
+	 * Go through every file in the table and hand it to the given writer. Rows are read off a forward only cursor
+	 * a batch at a time, so memory use stays the same no matter how many rows there are.
+	 * @param coursePrefix only files in courses with a name starting with this, ignored if empty
+	 * @param term only files in courses from this term, e.g.: 2012W2, ignored if empty
+	 * @param writer gets each row
+	 * @return number of rows written
+	 * @throws InaccessibleDbException
+	 * @throws IOException if the writer failed
+	 */
+	public long export(String coursePrefix, String term, ExportWriter writer) throws InaccessibleDbException, IOException
+	{
+		String tableName = getDAOSupport().getMap().getTableName();
+		boolean hasPrefix = coursePrefix != null && !coursePrefix.isEmpty();
+		boolean hasTerm = term != null && !term.isEmpty();
+		String query = "SELECT userid, course, filepath, fileid FROM " + tableName;
+		if (hasPrefix && hasTerm)
+		{
+			query += " WHERE filepath LIKE ? ESCAPE '\\' AND filepath LIKE ? ESCAPE '\\'";
+		}
+		else if (hasPrefix || hasTerm)
+		{
+			query += " WHERE filepath LIKE ? ESCAPE '\\'";
+		}
+		query += " ORDER BY pk1";
+
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		long count = 0;
+		try
+		{
+			conn = cm.getConnection();
+			conn.setAutoCommit(false); // need to disable autocommit for the fetch size to be used instead of loading
+										// the entire result set into memory
+			PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			int param = 1;
+			if (hasPrefix)
+			{
+				stmt.setString(param++, escapeLike(COURSESPATH + coursePrefix) + "%");
+			}
+			if (hasTerm)
+			{ // course names look like CL.UBC.MATH.101.201.2012W2.13204, narrows it down, exact check is done below
+				stmt.setString(param, escapeLike(COURSESPATH) + "%" + escapeLike("." + term + ".") + "%");
+			}
+			stmt.setFetchSize(CSIndexJob.BATCHSIZE);
+			ResultSet res = stmt.executeQuery();
+			while (res.next())
+			{
+				String filepath = res.getString(3);
+				String courseName = parseCourseName(filepath);
+				if (hasTerm && !("." + courseName + ".").contains("." + term + "."))
+				{ // term matched somewhere else in the path
+					continue;
+				}
+				writer.write(res.getString(1), courseName, res.getString(2), filepath, res.getString(4));
+				count++;
+			}
+			res.close();
+			stmt.close();
+			conn.commit(); // only ran a select, but just in case
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+		logger.info("Exported " + count + " files");
+		return count;
 	}
 
 	// Get the number of entries in this table
@@ -8,6 +8,9 @@ import blackboard.persist.impl.AbstractInsertQuery;
 import blackboard.persist.impl.mapping.DbObjectMap;
 import blackboard.persist.impl.mapping.LiteralDbMapping;
 import blackboard.persist.impl.mapping.Mapping;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -17,10 +20,21 @@ import java.util.ArrayList;
 import java.util.List;
 
 
+/**
+ * Insert a list of objects with one prepared statement. The rows are sent in batches of DbInit.getInsertFlushSize(),
+ * so a large insert doesn't build up one huge batch in the driver. The statement, including the sequence lookup for
+ * the primary key, is only prepared once and reused for every batch.
+ */
 class InsertBulkQuery extends AbstractInsertQuery {
+    private final static Logger logger = LoggerFactory.getLogger(InsertBulkQuery.class);
+
     private static final String TEMPLATE = "INSERT INTO %s ( %s ) VALUES ( %s )";
     protected List<Object> _objs;
 
+    // figured out when the statement is prepared, used when binding each row
+    private Mapping idMapping;
+    private boolean validId;
+
     InsertBulkQuery(DbObjectMap map) {
         this(map, new ArrayList<>());
     }
@@ -40,11 +54,12 @@ class InsertBulkQuery extends AbstractInsertQuery {
 
     protected Statement prepareStatement(Connection con, StringBuilder columns, StringBuilder values) throws SQLException, PersistenceException {
         String[] generatedKeyColumns = EMPTY_COLUMN_LIST;
-        Mapping idMapping = this.getDbObjectMap().getMapping("id");
+        idMapping = this.getDbObjectMap().getMapping("id");
         Id id = (Id)this.getDbObjectMap().getTargetValue(this._objs.get(0), "id");
+        validId = this.getContainer().isValidId(id);
         DbTypeProperties typeProperties = this.getBbDatabase().getType().getProperties();
         boolean useManualSequence = !typeProperties.usesAutoIncrementPrimaryKeys();
-        if(this.getContainer().isValidId(id)) {
+        if(validId) {
             this.addColumns(columns, values, idMapping);
         } else if(useManualSequence) {
             this.addSequenceColumns(columns, values, idMapping, this.getDbObjectMap().getPrimaryKeySequenceName());
@@ -64,6 +79,14 @@ class InsertBulkQuery extends AbstractInsertQuery {
             }
         }
 
+        // rows are bound in doExecute(), a batch at a time
+        return stmt;
+    }
+
+    protected void doExecute(Connection con) throws SQLException, PersistenceException {
+        PreparedStatement stmt = (PreparedStatement) this.getStatement();
+        int flushSize = DbInit.getInsertFlushSize();
+        int pending = 0;
         for(Object obj: this._objs) {
             int nStartPos1 = 1;
 
@@ -73,19 +96,30 @@ class InsertBulkQuery extends AbstractInsertQuery {
                 }
             }
 
-            if(this.getContainer().isValidId(id)) {
+            if(validId) {
                 Object obj1 = this.getDbObjectMap().getTargetValue(obj, idMapping.getName());
                 idMapping.marshall(this.getContainer(), stmt, nStartPos1, obj1);
             }
 
             stmt.addBatch();
+            pending++;
+            if (pending >= flushSize) {
+                flush(stmt, pending);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            flush(stmt, pending);
         }
-
-        return stmt;
     }
 
-    protected void doExecute(Connection con) throws SQLException, PersistenceException {
-        this.getStatement().executeBatch();
+    private void flush(PreparedStatement stmt, int rows) throws SQLException {
+        long start = System.nanoTime();
+        stmt.executeBatch();
+        stmt.clearBatch();
+        long nanos = System.nanoTime() - start;
+        IndexMetrics.getInstance().recordBatch(IndexMetrics.OP_INSERT_FLUSH, nanos);
+        logger.debug("Inserted " + rows + " rows into " + this.getDbObjectMap().getTableName() + " in " +
+                (nanos / 1000000) + " ms");
     }
 }
-
@@ -0,0 +1,222 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import blackboard.db.ConnectionManager;
+import blackboard.db.ConnectionNotAvailableException;
+import ca.ubc.ctlt.copyalerts.JsonIntermediate.Progress;
+import ca.ubc.ctlt.copyalerts.db.entities.File;
+import ca.ubc.ctlt.copyalerts.db.entities.QueueItem;
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Row counts for the files and queue tables, so that the progress display doesn't have to count the tables while
+ * the indexer is writing to them. The counts are kept in the status row and adjusted by the same amount as each
+ * insert or delete, so every node sees the same numbers no matter which node made the change.
+ *
+ * The counter columns aren't mapped in the Status entity on purpose, StatusTable persists the whole row and would
+ * otherwise overwrite them with stale values. The adjustments aren't in the same transaction as the change they
+ * track, so the counts can drift, reconcile() recounts the tables to fix that.
+ *
+ * Every indexing batch adjusts the counts, so to keep the single status row from becoming a hot spot, adjustments
+ * are added up in memory and written together at most once every FLUSH_INTERVAL_MILLIS. Changes made on this node
+ * show up in getProgress() straight away, other nodes see them after the next write. Writers should call flush()
+ * when they go idle so that the last adjustments aren't left waiting.
+ */
+public class ProgressCounters
+{
+	private final static Logger logger = LoggerFactory.getLogger(ProgressCounters.class);
+
+	// least amount of time between writes to the status row
+	public final static long FLUSH_INTERVAL_MILLIS = 2000;
+
+	private static ProgressCounters instance = null;
+
+	// adjustments that haven't been written yet
+	private final AtomicLong pendingFiles = new AtomicLong();
+	private final AtomicLong pendingQueue = new AtomicLong();
+	private final AtomicLong lastFlushNanos = new AtomicLong(System.nanoTime());
+	// only one write at a time, so that a failed write can put its adjustments back without racing another write
+	private final Object flushLock = new Object();
+
+	private ProgressCounters()
+	{
+	}
+
+	public static synchronized ProgressCounters getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new ProgressCounters();
+		}
+		return instance;
+	}
+
+	/**
+	 * Adjust the files table count.
+	 * @param delta number of rows added, negative for rows removed
+	 */
+	public void addFiles(long delta)
+	{
+		pendingFiles.addAndGet(delta);
+		flushIfDue();
+	}
+
+	/**
+	 * Adjust the queue table count.
+	 * @param delta number of rows added, negative for rows removed
+	 */
+	public void addQueue(long delta)
+	{
+		pendingQueue.addAndGet(delta);
+		flushIfDue();
+	}
+
+	/**
+	 * Write out the adjustments that have built up since the last write. A failed write only throws the progress
+	 * display off, so it's not worth failing the change that's being counted, the adjustments are kept for the next
+	 * write and the failure is logged.
+	 */
+	public void flush()
+	{
+		synchronized (flushLock)
+		{
+			lastFlushNanos.set(System.nanoTime());
+			long files = pendingFiles.getAndSet(0);
+			long queue = pendingQueue.getAndSet(0);
+			if (files == 0 && queue == 0)
+			{
+				return;
+			}
+			ConnectionManager cm = DbInit.getConnectionManager(Status.TABLE_NAME);
+			Connection conn = null;
+			try
+			{
+				conn = cm.getConnection();
+				PreparedStatement stmt = conn.prepareStatement("UPDATE " + Status.TABLE_NAME + " SET " +
+						"file_count = file_count + ?, queue_count = queue_count + ?");
+				stmt.setLong(1, files);
+				stmt.setLong(2, queue);
+				stmt.executeUpdate();
+				stmt.close();
+			} catch (SQLException e)
+			{
+				restore(files, queue, e);
+			} catch (ConnectionNotAvailableException e)
+			{
+				restore(files, queue, e);
+			} finally
+			{
+				if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+			}
+		}
+	}
+
+	/**
+	 * Read the counts, this is a single row lookup instead of counting the tables. Adjustments made on this node
+	 * are written out first.
+	 * @return progress with the file and queue counts
+	 * @throws InaccessibleDbException
+	 */
+	public Progress getProgress() throws InaccessibleDbException
+	{
+		flush();
+		Progress progress = new Progress();
+		ConnectionManager cm = DbInit.getConnectionManager(Status.TABLE_NAME);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			PreparedStatement stmt = conn.prepareStatement("SELECT file_count, queue_count FROM " + Status.TABLE_NAME);
+			ResultSet res = stmt.executeQuery();
+			if (res.next())
+			{
+				progress.fileCount = res.getLong(1);
+				progress.queueCount = res.getLong(2);
+			}
+			res.close();
+			stmt.close();
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+		return progress;
+	}
+
+	/**
+	 * Recount the files and queue tables and save the actual counts. This does the full table counts that the
+	 * counters are meant to avoid, so should only be run occasionally. Adjustments this node hasn't written yet are
+	 * dropped, the recount already covers them.
+	 * @throws InaccessibleDbException
+	 */
+	public void reconcile() throws InaccessibleDbException
+	{
+		Progress before = getProgress();
+		ConnectionManager cm = DbInit.getConnectionManager(Status.TABLE_NAME);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			synchronized (flushLock)
+			{
+				pendingFiles.set(0);
+				pendingQueue.set(0);
+			}
+			PreparedStatement stmt = conn.prepareStatement("UPDATE " + Status.TABLE_NAME + " SET " +
+					"file_count = (SELECT COUNT(*) FROM " + File.TABLE_NAME + "), " +
+					"queue_count = (SELECT COUNT(*) FROM " + QueueItem.TABLE_NAME + ")");
+			stmt.executeUpdate();
+			stmt.close();
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+		Progress after = getProgress();
+		if (before.fileCount != after.fileCount || before.queueCount != after.queueCount)
+		{
+			logger.info("Reconciled progress counters - files: " + before.fileCount + " -> " + after.fileCount +
+					", queue: " + before.queueCount + " -> " + after.queueCount);
+		}
+	}
+
+	/**
+	 * Write out the adjustments if it's been long enough since the last write, only one of the threads that notice
+	 * gets to do it.
+	 */
+	private void flushIfDue()
+	{
+		long now = System.nanoTime();
+		long last = lastFlushNanos.get();
+		if (now - last >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS) &&
+				lastFlushNanos.compareAndSet(last, now))
+		{
+			flush();
+		}
+	}
+
+	private void restore(long files, long queue, Exception e)
+	{
+		pendingFiles.addAndGet(files);
+		pendingQueue.addAndGet(queue);
+		logger.warn("Unable to update progress counters, will try again on the next write", e);
+	}
+}
@@ -0,0 +1,92 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+/**
+ * The SQL behind QueueTable's claims and leases. Kept apart from QueueTable so that the queries can be checked
+ * against a database without setting up the Blackboard persistence layer.
+ */
+class QueueQueries
+{
+	// rows that no one has claimed or whose claim has expired, takes the current time as a parameter
+	final static String CLAIMABLE = "(lease_owner IS NULL OR lease_expiry < ?)";
+
+	private QueueQueries()
+	{
+	}
+
+	/**
+	 * The claim update, parameters are owner, lease expiry, now, number of rows and now again.
+	 *
+	 * The front of the queue has to come off the primary key index (pk1 order), so that the database can stop after
+	 * the rows it needs. Sorting the claimable rows instead would go through the whole queue on every claim. Only
+	 * rows that are leased but not completed sit in front of the claimable ones, so the index walk is short.
+	 * PostgreSQL plans ORDER BY pk1 LIMIT as an index scan by itself. On Oracle, the optimizer could sort the inline
+	 * view before rownum gets to cut it off, so it's told to walk the primary key index, see schema.xml for its name.
+	 * @param dbName database product name, PostgreSQL or Oracle
+	 * @param tableName queue table name
+	 */
+	static String getClaimQuery(String dbName, String tableName)
+	{
+		String subSql;
+		switch (dbName)
+		{
+			case "PostgreSQL":
+				subSql = "SELECT pk1 FROM " + tableName + " WHERE " + CLAIMABLE + " ORDER BY pk1 LIMIT ?";
+				break;
+			case "Oracle":
+				subSql = "SELECT pk1 FROM (SELECT /*+ INDEX_ASC(q " + getPrimaryKeyIndex(tableName) + ") */ pk1 " +
+						"FROM " + tableName + " q WHERE " + CLAIMABLE + " ORDER BY pk1) WHERE rownum <= ?";
+				break;
+			default:
+				throw new RuntimeException("Unsupported database " + dbName);
+		}
+		return "UPDATE " + tableName + " SET lease_owner = ?, lease_expiry = ? " +
+				"WHERE pk1 IN (" + subSql + ") AND " + CLAIMABLE;
+	}
+
+	/**
+	 * @param tableName queue table name
+	 * @return name of the index behind the table's primary key, as given in schema.xml
+	 */
+	static String getPrimaryKeyIndex(String tableName)
+	{
+		return tableName + "_pk1";
+	}
+
+	/**
+	 * Finds a single claimable row, if there is one. Stops at the first row instead of counting the whole queue, the
+	 * only parameter is now.
+	 * @param dbName database product name, PostgreSQL or Oracle
+	 * @param tableName queue table name
+	 */
+	static String getHasClaimableQuery(String dbName, String tableName)
+	{
+		switch (dbName)
+		{
+			case "PostgreSQL":
+				return "SELECT 1 FROM " + tableName + " WHERE " + CLAIMABLE + " LIMIT 1";
+			case "Oracle":
+				return "SELECT 1 FROM " + tableName + " WHERE " + CLAIMABLE + " AND rownum <= 1";
+			default:
+				throw new RuntimeException("Unsupported database " + dbName);
+		}
+	}
+
+	/**
+	 * Deletes an owner's completed rows, parameters are the largest pk1 to delete and the owner.
+	 * @param tableName queue table name
+	 */
+	static String getCompleteQuery(String tableName)
+	{
+		return "DELETE FROM " + tableName + " WHERE pk1 <= ? AND lease_owner = ?";
+	}
+
+	/**
+	 * The release update, takes whatever parameters the where clause needs.
+	 * @param tableName queue table name
+	 * @param where picks the rows to release
+	 */
+	static String getReleaseQuery(String tableName, String where)
+	{
+		return "UPDATE " + tableName + " SET lease_owner = NULL, lease_expiry = NULL WHERE " + where;
+	}
+}
@@ -1,20 +1,37 @@
 package ca.ubc.ctlt.copyalerts.db;
 
+import blackboard.db.ConnectionManager;
+import blackboard.db.ConnectionNotAvailableException;
 import blackboard.persist.KeyNotFoundException;
 import blackboard.persist.dao.impl.SimpleDAO;
 import blackboard.persist.impl.SimpleCountQuery;
 import blackboard.persist.impl.SimpleSelectQuery;
 import blackboard.persist.impl.mapping.DbObjectMap;
 import blackboard.persist.impl.mapping.annotation.AnnotationMappingFactory;
+import blackboard.platform.query.Criteria;
+import ca.ubc.ctlt.copyalerts.configuration.HostResolver;
 import ca.ubc.ctlt.copyalerts.db.entities.QueueItem;
-import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.UUID;
 
 public class QueueTable extends SimpleDAO<QueueItem>
 {
+	private final static Logger logger = LoggerFactory.getLogger(QueueTable.class);
+
 	private static final DbObjectMap QUEUE_EXT_MAP = AnnotationMappingFactory.getMap(QueueItem.class);
 
+	// how many times to retry a claim that lost a race with another worker
+	private final static int CLAIM_ATTEMPTS = 3;
+
 	public QueueTable()
 	{
 		super(QUEUE_EXT_MAP);
@@ -31,8 +48,12 @@ public class QueueTable extends SimpleDAO<QueueItem>
 			QueueItem queueItem = new QueueItem(path);
 			query.addObject(queueItem);
 		}
-		if (query.getObjectsToInsert().size() > 0) {
+		int inserted = query.getObjectsToInsert().size();
+		if (inserted > 0) {
+			long start = System.nanoTime();
 			getDAOSupport().execute(query);
+			IndexMetrics.getInstance().recordBatch(IndexMetrics.OP_QUEUE_ADD, System.nanoTime() - start);
+			ProgressCounters.getInstance().addQueue(inserted);
 		} else {
 			// nothing to insert, close query instead
 			query.close();
@@ -67,94 +88,197 @@ public class QueueTable extends SimpleDAO<QueueItem>
 //		}
 	}
 
-	public List<QueueItem> load()
+	/**
+	 * Generate a unique lease owner for a claim. The owner starts with this host's name so that a restarted job can
+	 * recover the claims left behind by this host, see releaseHost().
+	 * @return lease owner
+	 */
+	public static String newLeaseOwner()
 	{
-		return load(CSIndexJob.BATCHSIZE);
+		return HostResolver.getHostname() + ":" + UUID.randomUUID().toString();
 	}
 
 	/**
-	 * Get the next set of files paths to be processed.
-	 * Load num rows from the queue. Remember to call pop() to read the next batch off the queue.
+	 * Claim up to num unclaimed rows, rows with expired claims are considered unclaimed. Claimed rows are leased to
+	 * the given owner until leaseMillis from now, other workers won't get them until then. Rows are claimed in pk1
+	 * order, so the queue is still processed roughly first in, first out.
 	 *
-	 * @param num number of QueueItems to load
-	 * @return List of QueueItems
+	 * @param owner unique lease owner, see newLeaseOwner()
+	 * @param num maximum number of rows to claim
+	 * @param leaseMillis how long the lease lasts
+	 * @return the rows claimed, empty if there's nothing left to claim
+	 * @throws InaccessibleDbException
 	 */
-	public List<QueueItem> load(int num)
+	public List<QueueItem> claim(String owner, int num, long leaseMillis) throws InaccessibleDbException
 	{
+		String tableName = getDAOSupport().getMap().getTableName();
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++)
+			{
+				Timestamp now = new Timestamp(System.currentTimeMillis());
+				String sql = QueueQueries.getClaimQuery(getDatabaseName(conn), tableName);
+				PreparedStatement stmt = conn.prepareStatement(sql);
+				stmt.setString(1, owner);
+				stmt.setTimestamp(2, new Timestamp(now.getTime() + leaseMillis));
+				stmt.setTimestamp(3, now);
+				stmt.setInt(4, num);
+				stmt.setTimestamp(5, now);
+				int claimed = stmt.executeUpdate();
+				stmt.close();
+				// The claimable check is repeated in the update itself, so a worker racing us for the same rows gets
+				// none of them instead of overwriting our claim. Try again if that's why we came up empty.
+				if (claimed > 0 || !hasClaimable(conn, tableName, now))
+				{
+					break;
+				}
+			}
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+
 		SimpleSelectQuery query = new SimpleSelectQuery(this.getDAOSupport().getMap());
+		Criteria criteria = query.getCriteria();
+		criteria.add(criteria.equal("leaseOwner", owner));
 		query.addOrderBy("id", true);
-		query.setMaxRows(num);
-
 		return getDAOSupport().loadList(query);
+	}
 
-//		Connection conn = null;
-//
-//		ArrayList<String> ret = new ArrayList<String>();
-//		try
-//		{
-//			conn = cm.getConnection();
-//			// note that there's no order guarantee from just select rownum statements, so have to use the order by subquery
-//			// to impose a repeatable order on the return results
-//			String query = "SELECT filepath FROM (SELECT * FROM "+ TABLENAME +" ORDER BY pk1) WHERE rownum <= " + num;
-//	        PreparedStatement queryCompiled = conn.prepareStatement(query);
-//	        ResultSet res = queryCompiled.executeQuery();
-//
-//	        while(res.next())
-//	        {
-//	        	ret.add(res.getString(1)); // store the path for return
-//	        }
-//
-//	        res.close();
-//
-//	        queryCompiled.close();
-//		} catch (SQLException e)
-//		{
-//			throw new InaccessibleDbException("Couldn't execute query", e);
-//		} catch (ConnectionNotAvailableException e)
-//		{
-//			throw new InaccessibleDbException("Unable to connect to db", e);
-//		}
-//		finally
-//		{
-//			if (conn != null) cm.releaseConnection(conn);
-//		}
-//
-//        return ret;
+	/**
+	 * Remove the given rows from the queue, they're done. Rows that are no longer leased to the owner, e.g.: the
+	 * lease expired and someone else claimed them, are left alone. Each claim gets its own owner, so the owner's
+	 * rows up to the batch's largest pk1 are exactly the batch, which saves sending every id.
+	 * @param owner lease owner
+	 * @param items rows to remove
+	 * @throws InaccessibleDbException
+	 */
+	public void complete(String owner, List<QueueItem> items) throws InaccessibleDbException
+	{
+		if (items.isEmpty())
+		{
+			return;
+		}
+		int deleted = deleteOwnedUpTo(owner, getMaxPk1(items));
+		if (deleted < items.size())
+		{
+			logger.debug("Lost the lease on " + (items.size() - deleted) + " rows before completing them");
+		}
+		ProgressCounters.getInstance().addQueue(-deleted);
+	}
+
+	/**
+	 * Give up the claim on all rows leased to the owner, so that they can be claimed again.
+	 * @param owner lease owner
+	 * @throws InaccessibleDbException
+	 */
+	public void release(String owner) throws InaccessibleDbException
+	{
+		releaseWhere("lease_owner = ?", owner);
 	}
 
-	public void pop()
+	/**
+	 * Give up all claims made from the given host. Meant to recover the claims left behind when the host's indexing
+	 * job died, without having to wait for them to expire.
+	 * @param hostname host name
+	 * @throws InaccessibleDbException
+	 */
+	public void releaseHost(String hostname) throws InaccessibleDbException
 	{
-		pop(CSIndexJob.BATCHSIZE);
+		releaseWhere("lease_owner LIKE ?", hostname + ":%");
+	}
+
+	private void releaseWhere(String where, String param) throws InaccessibleDbException
+	{
+		String tableName = getDAOSupport().getMap().getTableName();
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		try
+		{
+			conn = cm.getConnection();
+			PreparedStatement stmt = conn.prepareStatement(QueueQueries.getReleaseQuery(tableName, where));
+			stmt.setString(1, param);
+			stmt.executeUpdate();
+			stmt.close();
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
 	}
 
 	/**
-	 * Remove num rows from the queue table.
-	 * @param num number of QueueItems to pop
+	 * Delete the rows leased to the owner with a pk1 up to max.
+	 * @param owner lease owner
+	 * @param max largest pk1 to delete
+	 * @return number of rows deleted
+	 * @throws InaccessibleDbException
 	 */
-	public void pop(int num)
+	private int deleteOwnedUpTo(String owner, long max) throws InaccessibleDbException
 	{
-		DeleteTopQuery query = new DeleteTopQuery(getDAOSupport().getMap(), num);
-		this.getDAOSupport().delete(query);
-//		pop(load(num));
-//		Connection conn = null;
-//		try
-//		{
-//			conn = cm.getConnection();
-//			String query = "DELETE FROM "+ TABLENAME +" WHERE pk1 IN (SELECT pk1 FROM (SELECT * FROM "+ TABLENAME +" ORDER BY pk1) WHERE rownum <= "+ num +")";
-//			PreparedStatement deleteQuery = conn.prepareStatement(query); // don't need prepared statement for a single query, but can't be bothered to change
-//			deleteQuery.executeUpdate();
-//			deleteQuery.close();
-//		} catch (SQLException e)
-//		{
-//			throw new InaccessibleDbException("Couldn't execute query", e);
-//		} catch (ConnectionNotAvailableException e)
-//		{
-//			throw new InaccessibleDbException("Unable to connect to db", e);
-//		}
-//		finally
-//		{
-//			if (conn != null) cm.releaseConnection(conn);
-//		}
+		String tableName = getDAOSupport().getMap().getTableName();
+		ConnectionManager cm = DbInit.getConnectionManager(tableName);
+		Connection conn = null;
+		int deleted = 0;
+		try
+		{
+			conn = cm.getConnection();
+			PreparedStatement stmt = conn.prepareStatement(QueueQueries.getCompleteQuery(tableName));
+			stmt.setLong(1, max);
+			stmt.setString(2, owner);
+			deleted = stmt.executeUpdate();
+			stmt.close();
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
+		} finally
+		{
+			if (conn != null) cm.releaseConnection(conn); // MUST release connection or we'll exhaust connection pool
+		}
+		return deleted;
+	}
+
+	private long getMaxPk1(List<QueueItem> items)
+	{
+		long max = 0;
+		for (QueueItem item : items)
+		{
+			max = Math.max(max, FilesTable.getPk1(item.getId()));
+		}
+		return max;
+	}
+
+	private static String getDatabaseName(Connection conn) throws SQLException
+	{
+		return conn.getMetaData().getDatabaseProductName();
+	}
+
+	private boolean hasClaimable(Connection conn, String tableName, Timestamp now) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement(QueueQueries.getHasClaimableQuery(getDatabaseName(conn), tableName));
+		stmt.setTimestamp(1, now);
+		ResultSet res = stmt.executeQuery();
+		boolean ret = res.next();
+		res.close();
+		stmt.close();
+		return ret;
 	}
 
 	// Get the number of entries in this table
@@ -5,13 +5,18 @@ import blackboard.persist.dao.impl.SimpleDAO;
 import blackboard.persist.impl.mapping.DbObjectMap;
 import blackboard.persist.impl.mapping.annotation.AnnotationMappingFactory;
 import ca.ubc.ctlt.copyalerts.db.entities.Status;
+import ca.ubc.ctlt.copyalerts.db.operations.ScanPartition;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import org.joda.time.Duration;
 import org.joda.time.format.PeriodFormatter;
 import org.joda.time.format.PeriodFormatterBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Type;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 public class StatusTable extends SimpleDAO<Status>
@@ -20,7 +25,12 @@ public class StatusTable extends SimpleDAO<Status>
 
     private final static Logger logger = LoggerFactory.getLogger(StatusTable.class);
 
+    private static final Type PARTITION_LIST_TYPE = new TypeToken<List<ScanPartition>>(){}.getType();
+
     private Status status;
+    // resume data for partitioned queue generation, parsed from the json stored in status
+    private List<ScanPartition> queuePartitions = new ArrayList<>();
+    private Gson gson = new Gson();
 
     public StatusTable()
     {
@@ -28,7 +38,7 @@ public class StatusTable extends SimpleDAO<Status>
         loadStatus();
     }
 
-    public void loadStatus() {
+    public synchronized void loadStatus() {
         List<Status> statusList = this.loadAll();
         if (statusList.size() == 0) {
             status = new Status();
@@ -38,13 +48,14 @@ public class StatusTable extends SimpleDAO<Status>
             this.status = statusList.get(0);
             logger.info("Status info loaded");
         }
+        loadQueuePartitions();
     }
 
     /**
      * Save the run stats to the database
      * @throws PersistenceRuntimeException
      */
-    public void saveRunStats(String status, Timestamp start, Timestamp end)
+    public synchronized void saveRunStats(String status, Timestamp start, Timestamp end)
             throws PersistenceRuntimeException
     {
         this.status.setStatus(status);
@@ -63,7 +74,7 @@ public class StatusTable extends SimpleDAO<Status>
         return status.getConfig();
     }
 
-    public void saveConfig(String config)
+    public synchronized void saveConfig(String config)
     {
         status.setConfig(config);
         this.persist(status);
@@ -96,7 +107,7 @@ public class StatusTable extends SimpleDAO<Status>
      * @param lastQueueFileid The id of the last file we processed.
      * @throws PersistenceRuntimeException
      */
-    public void saveQueueResumeData(long queueOffset, long lastQueueFileid) throws PersistenceRuntimeException
+    public synchronized void saveQueueResumeData(long queueOffset, long lastQueueFileid) throws PersistenceRuntimeException
     {
         status.setQueueOffset(queueOffset);
         status.setLastQueueFileID(lastQueueFileid);
@@ -113,13 +124,146 @@ public class StatusTable extends SimpleDAO<Status>
         return status.getLastQueueFileID();
     }
 
-    public void saveFileResumeData(long offset, long pk1) throws PersistenceRuntimeException
+    public synchronized void saveFileResumeData(long offset, long pk1) throws PersistenceRuntimeException
     {
         status.setFilesOffset(offset);
         status.setLastFilesPk1(pk1);
         this.persist(status);
     }
 
+    /**
+     * Get the resume data for a partitioned queue generation.
+     * @return list of partitions, empty if queue generation wasn't partitioned or hasn't started
+     */
+    public synchronized List<ScanPartition> getQueuePartitions()
+    {
+        return new ArrayList<>(queuePartitions);
+    }
+
+    /**
+     * Save the partitions for a new partitioned queue generation, or clear them by passing an empty list.
+     * @param partitions list of partitions
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized void saveQueuePartitions(List<ScanPartition> partitions) throws PersistenceRuntimeException
+    {
+        queuePartitions = new ArrayList<>(partitions);
+        persistQueuePartitions();
+    }
+
+    /**
+     * Save the data necessary for resuming a single partition of an interrupted queue generation.
+     * Called from each partition's scan thread, so this has to be synchronized.
+     * @param index which partition
+     * @param offset How many table entries this partition has already processed
+     * @param lastId The id of the last file this partition processed.
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized void saveQueuePartitionResumeData(int index, long offset, long lastId) throws PersistenceRuntimeException
+    {
+        queuePartitions.get(index).saveProgress(offset, lastId);
+        persistQueuePartitions();
+    }
+
+    /**
+     * Mark a partition of the queue generation as completely scanned, so it's skipped on resume.
+     * @param index which partition
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized void finishQueuePartition(int index) throws PersistenceRuntimeException
+    {
+        queuePartitions.get(index).setFinished(true);
+        persistQueuePartitions();
+    }
+
+    private void persistQueuePartitions()
+    {
+        status.setQueuePartitions(queuePartitions.isEmpty() ? "" : gson.toJson(queuePartitions, PARTITION_LIST_TYPE));
+        this.persist(status);
+    }
+
+    private void loadQueuePartitions()
+    {
+        String json = status.getQueuePartitions();
+        List<ScanPartition> partitions = null;
+        if (json != null && !json.isEmpty()) {
+            partitions = gson.fromJson(json, PARTITION_LIST_TYPE);
+        }
+        queuePartitions = partitions == null ? new ArrayList<ScanPartition>() : partitions;
+    }
+
+    public long getQueueWatermark()
+    {
+        return status.getQueueWatermark();
+    }
+
+    /**
+     * Save the largest file id that has made it into the queue, incremental runs start after it.
+     * @param watermark file id
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized void saveQueueWatermark(long watermark) throws PersistenceRuntimeException
+    {
+        status.setQueueWatermark(watermark);
+        this.persist(status);
+    }
+
+    public String getRunMode()
+    {
+        return status.getRunMode();
+    }
+
+    public boolean isIncrementalRun()
+    {
+        return Status.RUN_MODE_INCREMENTAL.equals(status.getRunMode());
+    }
+
+    /**
+     * Save whether the cycle that's starting is a full sweep or an incremental run. The mode is kept until the
+     * cycle completes, so a resumed cycle carries on in the same mode.
+     * @param runMode Status.RUN_MODE_FULL or Status.RUN_MODE_INCREMENTAL
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized void saveRunMode(String runMode) throws PersistenceRuntimeException
+    {
+        status.setRunMode(runMode);
+        this.persist(status);
+    }
+
+    /**
+     * @return when the last full sweep finished, null if there hasn't been one
+     */
+    public Timestamp getLastFullSweep()
+    {
+        return status.getLastFullSweep();
+    }
+
+    public synchronized void saveLastFullSweep(Timestamp lastFullSweep) throws PersistenceRuntimeException
+    {
+        status.setLastFullSweep(lastFullSweep);
+        this.persist(status);
+    }
+
+    /**
+     * @return the generation files confirmed in the current cycle are stamped with
+     */
+    public long getGeneration()
+    {
+        return status.getGeneration();
+    }
+
+    /**
+     * Start a new generation, only done at the start of a full cycle so that a resumed cycle keeps its generation.
+     * @return the new generation
+     * @throws PersistenceRuntimeException
+     */
+    public synchronized long nextGeneration() throws PersistenceRuntimeException
+    {
+        status.setGeneration(status.getGeneration() + 1);
+        this.persist(status);
+        return status.getGeneration();
+    }
+
     public long getFilesOffset()
     {
         return status.getFilesOffset();
@@ -130,7 +274,7 @@ public class StatusTable extends SimpleDAO<Status>
         return status.getLastFilesPk1();
     }
 
-    public void saveStage(String stage) throws PersistenceRuntimeException
+    public synchronized void saveStage(String stage) throws PersistenceRuntimeException
     {
         status.setStage(stage);
         this.persist(status);
@@ -157,8 +301,9 @@ public class StatusTable extends SimpleDAO<Status>
         return status.toString();
     }
 
-    public void reset() {
+    public synchronized void reset() {
         status.reset();
+        queuePartitions.clear();
         this.persist(status);
     }
 }
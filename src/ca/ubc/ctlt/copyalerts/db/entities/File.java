@@ -22,15 +22,19 @@ public class File extends AbstractIdentifiable {
     @Column({"fileid"})
     private String fileId;
 
+    @Column({"generation"})
+    private long generation;
+
     public File() {
-        this("", "", "", "");
+        this("", "", "", "", 0);
     }
 
-    public File(String userId, String course, String filePath, String fileId) {
+    public File(String userId, String course, String filePath, String fileId, long generation) {
         this.userId = userId;
         this.course = course;
         this.filePath = filePath;
         this.fileId = fileId;
+        this.generation = generation;
     }
 
     public String getUserId() {
@@ -64,4 +68,12 @@ public class File extends AbstractIdentifiable {
     public void setFileId(String fileId) {
         this.fileId = fileId;
     }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
 }
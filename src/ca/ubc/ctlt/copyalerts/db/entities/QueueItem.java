@@ -5,6 +5,8 @@ import blackboard.persist.DataType;
 import blackboard.persist.impl.mapping.annotation.Column;
 import blackboard.persist.impl.mapping.annotation.Table;
 
+import java.util.Calendar;
+
 @Table(QueueItem.TABLE_NAME)
 public class QueueItem extends AbstractIdentifiable {
     public static final DataType DATA_TYPE = new DataType(QueueItem.class);
@@ -13,6 +15,12 @@ public class QueueItem extends AbstractIdentifiable {
     @Column({"filepath"})
     private String filePath;
 
+    @Column({"lease_owner"})
+    private String leaseOwner;
+
+    @Column({"lease_expiry"})
+    private Calendar leaseExpiry;
+
     public QueueItem() {
         this(null);
     }
@@ -28,6 +36,14 @@ public class QueueItem extends AbstractIdentifiable {
         this.filePath = filePath;
     }
 
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public Calendar getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
     public String toString() {
         return filePath;
     }
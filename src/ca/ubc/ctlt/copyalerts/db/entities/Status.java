@@ -21,6 +21,9 @@ public class Status extends AbstractIdentifiable {
     public final static String STATUS_STOPPED = "stopped";
     public final static String STATUS_LIMIT = "limit";
     public final static String STATUS_ERROR = "error";
+    // all the possible values for the "run_mode" field
+    public final static String RUN_MODE_FULL = "full";
+    public final static String RUN_MODE_INCREMENTAL = "incremental";
 
     // the column names for the hosts table
     public final static String STATUS_RUNNING_KEY = "status"; // running status of this host
@@ -36,6 +39,11 @@ public class Status extends AbstractIdentifiable {
     // if 0, then queue generation is finished
     public final static String FILES_OFFSET_KEY = "files_offset";
     public final static String LAST_FILES_PK1_KEY = "last_files_pk1";
+    public final static String QUEUE_PARTITIONS_KEY = "queue_partitions"; // resume data for a partitioned queue generation
+    public final static String QUEUE_WATERMARK_KEY = "queue_watermark"; // largest file id put into the queue so far
+    public final static String RUN_MODE_KEY = "run_mode"; // full sweep or incremental
+    public final static String LAST_FULL_SWEEP_KEY = "last_full_sweep"; // when did the last full sweep finish
+    public final static String GENERATION_KEY = "generation"; // files confirmed in the current full cycle are stamped with this
 
     @Column({"status"})
     private String status;
@@ -55,6 +63,21 @@ public class Status extends AbstractIdentifiable {
     @Column({"last_files_pk1"})
     private long lastFilesPk1;
 
+    @Column({"queue_partitions"})
+    private String queuePartitions;
+
+    @Column({"queue_watermark"})
+    private long queueWatermark;
+
+    @Column({"run_mode"})
+    private String runMode;
+
+    @Column({"last_full_sweep"})
+    private Calendar lastFullSweep;
+
+    @Column({"generation"})
+    private long generation;
+
     @Column({"runstart"})
     private Calendar runstart;
 
@@ -75,6 +98,11 @@ public class Status extends AbstractIdentifiable {
         this.filesOffset = 0;
         this.lastQueueFileID = 0;
         this.lastFilesPk1 = 0;
+        this.queuePartitions = "";
+        this.queueWatermark = 0;
+        this.runMode = RUN_MODE_FULL;
+        this.lastFullSweep = null;
+        this.generation = 0;
         this.runstart = Calendar.getInstance();
         this.runend = Calendar.getInstance();
         this.config = "";
@@ -128,6 +156,47 @@ public class Status extends AbstractIdentifiable {
         this.lastFilesPk1 = lastFilesPk1;
     }
 
+    public String getQueuePartitions() {
+        return queuePartitions;
+    }
+
+    public void setQueuePartitions(String queuePartitions) {
+        this.queuePartitions = queuePartitions;
+    }
+
+    public long getQueueWatermark() {
+        return queueWatermark;
+    }
+
+    public void setQueueWatermark(long queueWatermark) {
+        this.queueWatermark = queueWatermark;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public String getRunMode() {
+        return runMode;
+    }
+
+    public void setRunMode(String runMode) {
+        this.runMode = runMode;
+    }
+
+    public Timestamp getLastFullSweep() {
+        return this.lastFullSweep == null ? null : new Timestamp(this.lastFullSweep.getTimeInMillis());
+    }
+
+    public void setLastFullSweep(Timestamp lastFullSweep) {
+        this.lastFullSweep = Calendar.getInstance();
+        this.lastFullSweep.setTimeInMillis(lastFullSweep.getTime());
+    }
+
     public Calendar getRunstart() {
         return runstart;
     }
@@ -179,6 +248,11 @@ public class Status extends AbstractIdentifiable {
                 ", filesOffset=" + filesOffset +
                 ", lastQueueFileID=" + lastQueueFileID +
                 ", lastFilesPk1=" + lastFilesPk1 +
+                ", queuePartitions='" + queuePartitions + '\'' +
+                ", queueWatermark=" + queueWatermark +
+                ", runMode='" + runMode + '\'' +
+                ", lastFullSweep=" + (lastFullSweep == null ? null : lastFullSweep.getTime()) +
+                ", generation=" + generation +
                 ", runstart=" + runstart.getTime() +
                 ", runend=" + runend.getTime() +
                 ", config='" + config + '\'' +
@@ -1,11 +1,13 @@
 package ca.ubc.ctlt.copyalerts.db.operations;
 
 import blackboard.cms.filesystem.CSFile;
-import blackboard.data.course.Course;
 import blackboard.persist.Id;
 import blackboard.persist.PersistenceException;
-import blackboard.persist.course.CourseDbLoader;
+import ca.ubc.ctlt.copyalerts.db.CacheSupport;
+import ca.ubc.ctlt.copyalerts.db.CourseCache;
+import ca.ubc.ctlt.copyalerts.db.CourseCache.CourseInfo;
 import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
 import ca.ubc.ctlt.copyalerts.db.StatusTable;
 import ca.ubc.ctlt.copyalerts.db.entities.File;
 import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
@@ -13,21 +15,29 @@ import ca.ubc.ctlt.copyalerts.indexer.IndexGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Calendar;
+import java.sql.SQLException;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class FilesTableUpdateScanProcessor extends ScanProcessor
 {
 	private final static Logger logger = LoggerFactory.getLogger(FilesTableUpdateScanProcessor.class);
 
 	private Set<Id> filesToRemove = new HashSet<>();
+	// whether each course we've seen in this scan is active, inactive courses have already had their files removed
+	private ConcurrentMap<String, FutureTask<Boolean>> courseVerdicts = new ConcurrentHashMap<>();
 	private long rownum;
 	private long file_pk1;
+	// position of the path column in the scan's rows
+	protected int pathColumn;
 	private IndexGenerator indexGen;
-	private FilesTable filestable;
-	private StatusTable statustable;
+	protected FilesTable filestable;
+	protected StatusTable statustable;
 
 	public FilesTableUpdateScanProcessor(IndexGenerator indexGen, StatusTable statustable) {
 		this.indexGen = indexGen;
@@ -37,24 +47,17 @@ public class FilesTableUpdateScanProcessor extends ScanProcessor
 
 
 	@Override
-	public void scan(Map<String, String> result) throws PersistenceException {
-		String path = result.get("filepath");
-		rownum = Long.parseLong(result.get("rownum"));
-		file_pk1 = Long.parseLong(result.get("pk1"));
-		Id pk1 = Id.generateId(File.DATA_TYPE, file_pk1);
-
-		// check if the course is still available
-		Course course = getCourseByPath(path);
-		if (course == null || !course.getIsAvailable() ||
-				(course.getEndDate() != null && course.getEndDate().before(Calendar.getInstance()))) {
-			filesToRemove.add(pk1);
-		} else {
-			// check to see if this file has been removed or tagged since we last checked
-			CSFile file = indexGen.getCSFileFromPath(path);
-
-			if (null == file || indexGen.fileIsTagged(file)) {
-				filesToRemove.add(pk1);
-			}
+	public void init(ResumableScanInfo info) {
+		pathColumn = info.getColumnIndex("filepath");
+	}
+
+	@Override
+	public void scan(ScanRow row) throws PersistenceException, SQLException {
+		String path = row.getString(pathColumn);
+		rownum = row.getOffset();
+		file_pk1 = row.getRowId();
+		if (shouldRemove(path, indexGen)) {
+			filesToRemove.add(Id.generateId(File.DATA_TYPE, file_pk1));
 		}
 
 		// store the current batch into the queue when we've got enough
@@ -77,6 +80,31 @@ public class FilesTableUpdateScanProcessor extends ScanProcessor
 		}
 	}
 
+	/**
+	 * Check whether the file should be removed from the file table. Safe to call from multiple threads as long as
+	 * each thread uses its own IndexGenerator.
+	 * @param path file path
+	 * @param indexGen used to look up the file in the content system
+	 * @return true if the file should be removed, false if it should stay or has already been removed along with
+	 * the rest of its course
+	 * @throws PersistenceException
+	 */
+	protected boolean shouldRemove(String path, IndexGenerator indexGen) throws PersistenceException {
+		// check if the course is still available, each course only needs to be checked once per run
+		String courseName = getCourseName(path);
+		if (courseName == null) {
+			// not a course file, shouldn't be in the table
+			return true;
+		}
+		if (!isActiveCourse(courseName, path)) {
+			// all of the course's files were already removed together, nothing left to do for this row
+			return false;
+		}
+		// check to see if this file has been removed or tagged since we last checked
+		CSFile file = indexGen.getCSFileFromPath(path);
+		return null == file || indexGen.fileIsTagged(file);
+	}
+
 	/**
 	 * delete all processed files from file table and save the status in case we need a resume in next run
 	 */
@@ -90,7 +118,92 @@ public class FilesTableUpdateScanProcessor extends ScanProcessor
 		statustable.saveFileResumeData(rownum, file_pk1);
 	}
 
-	public static Course getCourseByPath(String path) {
+	/**
+	 * Check whether the course is still active, remembering the answer for the rest of the scan. The first time we
+	 * find an inactive course, all of its files are removed in one go, so the remaining rows for the course can be
+	 * skipped without going to the content system. Files are only removed when the course is known to be missing
+	 * or inactive, if the course can't be looked up, nothing is removed or remembered.
+	 *
+	 * Only the first thread to ask about a course does the check, other threads asking about the same course wait
+	 * for its answer. Threads working on other courses aren't held up.
+	 * @param courseName course id
+	 * @param path path of the file we're looking at
+	 * @return true if the course is active
+	 * @throws PersistenceException if the course couldn't be looked up
+	 */
+	private boolean isActiveCourse(final String courseName, final String path) throws PersistenceException {
+		FutureTask<Boolean> verdict = courseVerdicts.get(courseName);
+		if (verdict == null) {
+			FutureTask<Boolean> check = new FutureTask<>(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws PersistenceException {
+					return checkCourse(courseName, path);
+				}
+			});
+			verdict = courseVerdicts.putIfAbsent(courseName, check);
+			if (verdict == null) {
+				verdict = check;
+				check.run();
+			}
+		}
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return verdict.get();
+				} catch (InterruptedException e) {
+					// the check is already running, it's quicker to wait for it than to deal with a missing answer
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			// forget the failure so that the course is checked again the next time it comes up
+			courseVerdicts.remove(courseName, verdict);
+			throw CacheSupport.toPersistenceException(e.getCause());
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Look up the course and remove all of its files if it's missing or inactive.
+	 * @return true if the course is active
+	 * @throws PersistenceException
+	 */
+	private boolean checkCourse(String courseName, String path) throws PersistenceException {
+		CourseInfo course = getCourseByPath(path);
+		boolean active = course != null && course.isActive();
+		if (!active) {
+			try {
+				int removed = filestable.deleteCourseFiles(courseName);
+				logger.debug("Course " + courseName + " is no longer active, removed " + removed + " files");
+			} catch (InaccessibleDbException e) {
+				throw new PersistenceException("Unable to remove files for course " + courseName, e);
+			}
+		}
+		return active;
+	}
+
+	/**
+	 * @return the course id part of a course file path, null if it's not a course file path
+	 */
+	private static String getCourseName(String path) {
+		if (!path.startsWith("/courses/")) {
+			return null;
+		}
+		String[] parts = path.split("/");
+		return parts.length > 3 ? parts[2] : null;
+	}
+
+	/**
+	 * @param path file path
+	 * @return the course the file is in, null if it's not a course file or the course doesn't exist
+	 * @throws PersistenceException if the course couldn't be looked up
+	 */
+	public static CourseInfo getCourseByPath(String path) throws PersistenceException {
 		// path has to be a course path
 		if (!path.startsWith("/courses/")) {
 			return null;
@@ -98,11 +211,8 @@ public class FilesTableUpdateScanProcessor extends ScanProcessor
 
 		String courseStr = path.split("/")[2];
 
-		Course course = null;
-
-		try {
-			course = CourseDbLoader.Default.getInstance().loadByCourseId(courseStr);
-		} catch (PersistenceException e) {
+		CourseInfo course = CourseCache.getInstance().getCourse(courseStr);
+		if (course == null) {
 			logger.info("Could not find course " + courseStr);
 		}
 
@@ -0,0 +1,301 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
+import ca.ubc.ctlt.copyalerts.db.StatusTable;
+import ca.ubc.ctlt.copyalerts.db.entities.File;
+import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
+import ca.ubc.ctlt.copyalerts.indexer.CourseLookupCache;
+import ca.ubc.ctlt.copyalerts.indexer.IndexGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipelined version of FilesTableUpdateScanProcessor. The scan thread only reads rows off the cursor and hands
+ * them to a pool of validator threads through a bounded queue, so the cursor isn't left sitting idle while we wait
+ * on the content system. If the validators fall behind, the queue fills up and the scan thread waits for room.
+ *
+ * Validators finish rows out of order, so the resume checkpoint only moves past a row once every row before it has
+ * been validated and all the removals up to that point have been written to the database.
+ */
+public class PipelinedUpdateScanProcessor extends FilesTableUpdateScanProcessor
+{
+	private final static Logger logger = LoggerFactory.getLogger(PipelinedUpdateScanProcessor.class);
+
+	// how long the scan thread waits on a full queue before checking whether the validators have failed
+	private final static long OFFER_TIMEOUT_SECONDS = 1;
+
+	/**
+	 * A row handed from the scan thread to the validators.
+	 */
+	private static class Row
+	{
+		private final long offset;
+		private final long pk1;
+		private final String path;
+
+		private Row(long offset, long pk1, String path)
+		{
+			this.offset = offset;
+			this.pk1 = pk1;
+			this.path = path;
+		}
+	}
+
+	// tells a validator that there are no more rows
+	private final static Row END = new Row(0, 0, null);
+
+	private ArrayList<String> attributes;
+	private CourseLookupCache courseLookups;
+	private int numValidators;
+	private BlockingQueue<Row> rows = new ArrayBlockingQueue<>(CSIndexJob.BATCHSIZE);
+	private List<Thread> validators = new ArrayList<>();
+	private volatile Throwable error = null;
+	// set when the scan failed, validators should stop checking rows
+	private volatile boolean aborted = false;
+
+	// Checkpoint data, guarded by checkpointLock.
+	private final Object checkpointLock = new Object();
+	private Set<Id> filesToRemove = new HashSet<>();
+	private ScanCheckpoint checkpoint;
+
+	public PipelinedUpdateScanProcessor(ArrayList<String> attributes, CourseLookupCache courseLookups,
+										StatusTable statustable, int numValidators)
+	{
+		super(null, statustable);
+		this.attributes = attributes;
+		this.courseLookups = courseLookups;
+		this.numValidators = numValidators;
+	}
+
+	@Override
+	public void init(ResumableScanInfo info)
+	{
+		super.init(info);
+		// the checkpoint starts where the scan starts
+		checkpoint = new ScanCheckpoint(info.isResume() ? info.getRowOffset() : 0, info.getRowIdVal());
+
+		for (int i = 0; i < numValidators; i++)
+		{
+			Thread thread = new Thread(new Validator(), "CSIndexJob-validator-" + i);
+			validators.add(thread);
+			thread.start();
+		}
+	}
+
+	@Override
+	public void scan(ScanRow row) throws PersistenceException, SQLException
+	{
+		Row next = new Row(row.getOffset(), row.getRowId(), row.getString(pathColumn));
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				checkError();
+				try
+				{
+					if (rows.offer(next, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+					{
+						break;
+					}
+				} catch (InterruptedException e)
+				{ // still need to hand off this row, the scan decides when to stop
+					interrupted = true;
+				}
+			}
+		} finally
+		{
+			if (interrupted)
+			{ // make sure the scan still sees the interrupt
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void cleanup(boolean wasInterrupted)
+	{
+		// let the validators finish everything already queued
+		stopValidators();
+
+		synchronized (checkpointLock)
+		{
+			// whatever's left gets written out along with the checkpoint
+			flush();
+			if (error != null)
+			{ // the checkpoint only covers rows that were validated, so the next run picks up from there
+				throw new PersistenceRuntimeException("Validator failed, stopping scan", error);
+			}
+			if (!wasInterrupted)
+			{
+				// make sure to reset resume data if we've gone a full run without problems
+				statustable.saveFileResumeData(0, 0);
+				logger.debug("Finished processing. Reset Resume Data - Offset: 0 (was " + checkpoint.getOffset() +
+						") File ID: 0 (was " + checkpoint.getRowId() + ")");
+			}
+		}
+	}
+
+	@Override
+	public void abort()
+	{
+		// drop whatever's queued, the checkpoint doesn't cover those rows so they'll be picked up on resume
+		aborted = true;
+		rows.clear();
+		stopValidators();
+	}
+
+	/**
+	 * Tell each validator to stop once it's gone through the queue and wait for them to finish.
+	 */
+	private void stopValidators()
+	{
+		boolean interrupted = false;
+		for (int i = 0; i < validators.size(); i++)
+		{
+			while (true)
+			{
+				if (error != null)
+				{ // rows aren't checked after a failure anyway, and a validator that died won't take them off
+					rows.clear();
+				}
+				try
+				{
+					if (rows.offer(END, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+					{
+						break;
+					}
+				} catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		for (Thread validator : validators)
+		{
+			while (validator.isAlive())
+			{
+				try
+				{
+					validator.join();
+				} catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+		validators.clear();
+	}
+
+	private void checkError() throws PersistenceException
+	{
+		if (error != null)
+		{
+			throw new PersistenceException("Validator failed, stopping scan", error);
+		}
+	}
+
+	/**
+	 * Record that a row has been validated and move the checkpoint up as far as we can.
+	 */
+	private void finishRow(Row row, boolean remove)
+	{
+		synchronized (checkpointLock)
+		{
+			if (remove)
+			{
+				filesToRemove.add(Id.generateId(File.DATA_TYPE, row.pk1));
+			}
+			checkpoint.finish(row.offset, row.pk1);
+			if (filesToRemove.size() >= CSIndexJob.BATCHSIZE)
+			{
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Delete the files waiting to be removed, then save the checkpoint. Has to be in this order, or a resume could
+	 * start after rows that were never removed. Must hold checkpointLock.
+	 */
+	private void flush()
+	{
+		if (!filesToRemove.isEmpty())
+		{
+			filestable.deleteFilesByPk1(filesToRemove);
+			logger.debug("Removed " + filesToRemove.size() + " from file table");
+			filesToRemove.clear();
+		}
+		logger.debug("Saving Resume Data - Offset: " + checkpoint.getOffset() + " File ID: " + checkpoint.getRowId());
+		statustable.saveFileResumeData(checkpoint.getOffset(), checkpoint.getRowId());
+	}
+
+	/**
+	 * Takes rows off the queue and checks them until it gets the END marker. After a failure, it keeps taking rows
+	 * off the queue without checking them, so that the scan thread doesn't get stuck on a full queue. Anything
+	 * thrown, Errors included, is recorded, so that the scan stops instead of waiting on rows that never finish.
+	 */
+	private class Validator implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				validate();
+			} catch (Throwable e)
+			{ // the thread is going away, make sure the scan finds out
+				logger.error("Validator stopped unexpectedly", e);
+				error = e;
+			}
+		}
+
+		private void validate()
+		{
+			// each thread needs its own content system context
+			IndexGenerator indexGen = new IndexGenerator(attributes, courseLookups, statustable.getGeneration());
+			while (true)
+			{
+				Row row;
+				try
+				{
+					row = rows.take();
+				} catch (InterruptedException e)
+				{ // only cleanup() gets to stop us, otherwise we'd leave rows behind that the checkpoint waits on
+					continue;
+				}
+				if (row == END)
+				{
+					return;
+				}
+				if (error != null || aborted)
+				{
+					continue;
+				}
+				try
+				{
+					finishRow(row, shouldRemove(row.path, indexGen));
+				} catch (Throwable e)
+				{
+					logger.error("Unable to validate " + row.path, e);
+					error = e;
+				}
+			}
+		}
+	}
+}
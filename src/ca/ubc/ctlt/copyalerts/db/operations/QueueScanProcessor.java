@@ -6,9 +6,9 @@ import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,29 +31,52 @@ public class QueueScanProcessor extends ScanProcessor
 	 */
 	private QueueTable queuetable = new QueueTable();
 	private StatusTable statusTable;
+	/**
+	 * The partition this processor is scanning, null if the scan isn't partitioned.
+	 */
+	private ScanPartition partition;
 
 	/**
 	 * Keeps track of resume data for this scan.
 	 */
 	private long rownum = 0;
 	private long file_id = 0;
+	/**
+	 * Position of the path column in the scan's rows.
+	 */
+	private int pathColumn;
 
 
 	public QueueScanProcessor(StatusTable statusTable)
+	{
+		this(statusTable, null);
+	}
+
+	/**
+	 * Processor for a single partition of a partitioned scan, resume data is saved for that partition only.
+	 */
+	public QueueScanProcessor(StatusTable statusTable, ScanPartition partition)
 	{
 		this.statusTable = statusTable;
+		this.partition = partition;
+	}
+
+	@Override
+	public void init(ResumableScanInfo info)
+	{
+		pathColumn = info.getColumnIndex("full_path");
 	}
 
 	/**
-	 * - rownum: 1
-	 * - path: /courses/coursename/file
-	 * - fileid: 12
+	 * - offset: 1
+	 * - full_path: /courses/coursename/file
+	 * - row id: file_id, e.g.: 12
 	 */
 	@Override
-	public void scan(Map<String, String> result) {
-		String path = result.get("full_path");
-		rownum = Long.parseLong(result.get("rownum"));
-		file_id = Long.parseLong(result.get("file_id"));
+	public void scan(ScanRow row) throws SQLException {
+		String path = row.getString(pathColumn);
+		rownum = row.getOffset();
+		file_id = row.getRowId();
 		// make sure that we only have course files and no xid- files
 		// it seems that xid- files are not listed in the xyf_urls table,
 		// but better be safe with an explicit check
@@ -75,13 +98,27 @@ public class QueueScanProcessor extends ScanProcessor
 			// make sure the last incomplete batch isn't missed
 			save();
 		}
-		if (!wasInterrupted) {
+		if (!wasInterrupted && partition != null) {
+			// partition is done, the job resets the partition data once all of them are done
+			statusTable.finishQueuePartition(partition.getIndex());
+			logger.debug("Finished processing partition " + partition.getIndex() + ". Last Offset: " + rownum + " File ID: " + file_id);
+		}
+		else if (!wasInterrupted) {
 			// make sure to reset queue resume data if we've gone a full run without problems
 			statusTable.saveQueueResumeData(0, 0);
 			logger.debug("Finished processing. Reset Resume Data - Offset: 0 (was " + rownum + ") File ID: 0 (was " + file_id + ")");
 		}
 	}
 
+	/**
+	 * @return the id of the last row scanned by this processor, rows are scanned in id order so this is also the
+	 * largest, 0 if nothing was scanned
+	 */
+	public long getLastFileId()
+	{
+		return file_id;
+	}
+
 	/**
 	 * Save all processed paths to queue table and save the status in case we need a resume in next run
 	 */
@@ -92,8 +129,14 @@ public class QueueScanProcessor extends ScanProcessor
 		paths.clear();
 
 		// save resume data since we weren't finished
-		logger.debug("Saving Resume Data - Offset: " + rownum + " File ID: " + file_id);
-		statusTable.saveQueueResumeData(rownum, file_id);
+		if (partition != null) {
+			logger.debug("Saving Resume Data - Partition: " + partition.getIndex() + " Offset: " + rownum + " File ID: " + file_id);
+			statusTable.saveQueuePartitionResumeData(partition.getIndex(), rownum, file_id);
+		}
+		else {
+			logger.debug("Saving Resume Data - Offset: " + rownum + " File ID: " + file_id);
+			statusTable.saveQueueResumeData(rownum, file_id);
+		}
 	}
 
 }
@@ -0,0 +1,54 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * ScanRow over the current row of the scan query's result set, see ResumableScanInfo.getQueueQuery() for the
+ * column layout. Data columns come first, in order, followed by the row id.
+ */
+class ResultSetScanRow implements ScanRow
+{
+	private ResultSet res;
+	private int rowIdColumn;
+	private long offset;
+
+	ResultSetScanRow(ResultSet res, ResumableScanInfo info)
+	{
+		this.res = res;
+		this.rowIdColumn = info.getDataColumnNames().size() + 1;
+	}
+
+	/**
+	 * Move on to the next row, the result set should already be on it.
+	 * @param offset the row's offset from the start of the full scan
+	 */
+	void setOffset(long offset)
+	{
+		this.offset = offset;
+	}
+
+	@Override
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	@Override
+	public long getRowId() throws SQLException
+	{
+		return res.getLong(rowIdColumn);
+	}
+
+	@Override
+	public String getString(int column) throws SQLException
+	{
+		return res.getString(column + 1);
+	}
+
+	@Override
+	public long getLong(int column) throws SQLException
+	{
+		return res.getLong(column + 1);
+	}
+}
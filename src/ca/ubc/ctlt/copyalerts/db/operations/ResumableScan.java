@@ -3,8 +3,12 @@ package ca.ubc.ctlt.copyalerts.db.operations;
 import blackboard.db.ConnectionManager;
 import blackboard.db.ConnectionNotAvailableException;
 import blackboard.persist.PersistenceException;
+import blackboard.persist.PersistenceRuntimeException;
 import ca.ubc.ctlt.copyalerts.db.DbInit;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
 import ca.ubc.ctlt.copyalerts.indexer.CSIndexJob;
+import ca.ubc.ctlt.copyalerts.indexer.ProgressEvents;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,13 +16,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ResumableScan implements Runnable
 {
 	private final static Logger logger = LoggerFactory.getLogger(ResumableScan.class);
 
+	// how many rows go by between updates to the progress and metrics row counts
+	private final static int RECORD_INTERVAL = 100;
+
 	private ScanProcessor processor;
 	private ResumableScanInfo info;
 	private final Object errorLock = new Object();
@@ -40,6 +47,7 @@ public class ResumableScan implements Runnable
 	{
 		ConnectionManager cm = DbInit.getConnectionManager(info.getTableName());
 		Connection conn = null;
+		boolean cleanedUp = false;
 
 		try
 		{
@@ -47,81 +55,47 @@ public class ResumableScan implements Runnable
 			conn.setAutoCommit(false); // need to disable autocommit to enable
 										// fetching only a small number of rows at once necessary to keep memory usage low
 
-			long lastQueueFileid = info.getRowIdVal();
 			long queueOffset = 0;
-			if (lastQueueFileid != 0)
-			{ // queue generation was interrupted, let's try to resume
-				// find out where the last file id we saw is at
-				String query = info.getQueueOffsetQuery(conn);
-				PreparedStatement stmt = conn.prepareStatement(query);
-				stmt.setLong(1, lastQueueFileid);
-
-				long startTime = System.currentTimeMillis();
-				ResultSet res = stmt.executeQuery();
-				if (res.next())
-				{ // good, file wasn't deleted, set our offset to it
-					logger.debug("Resuming from offset of last processed file.");
-					queueOffset = res.getLong(1);
-				}
-				else
-				{ // file was deleted! have to use the fall back option
-					// just using the stored offset means that we might miss some files, but hopefully this isn't a common occurrence
-					logger.debug("Can't find last processed file, blindly resuming from last offset.");
-					queueOffset = info.getRowOffset();
-				}
-				long endTime = System.currentTimeMillis();
-				long interval = endTime - startTime;
-				logger.debug("Resume Scan Query Time: " + interval / 1000.0 + " seconds");
-				res.close();
+			PreparedStatement queryCompiled = conn.prepareStatement(info.getQueueQuery(conn));
+			if (info.isResume())
+			{ // scan was interrupted, seek past the last row we processed
+				logger.debug("Resuming after row id " + info.getRowIdVal() + " at offset " + info.getRowOffset());
+				queryCompiled.setLong(1, info.getRowIdVal());
+				// the offset is only kept for progress reporting
+				queueOffset = info.getRowOffset();
+			}
+			if (info.hasUpperBound())
+			{ // partitioned scan, stop at the end of our partition
+				queryCompiled.setLong(info.isResume() ? 2 : 1, info.getRowIdUpperBound());
 			}
-
-//			String dataColumnNames = "";
-//			for (String name : info.getDataColumnNames())
-//			{
-//				dataColumnNames += name + ", ";
-//			}
-//			String query = "";
-//			// complex query for resume, simpler for generating a new queue
-//			if (queueOffset > 0)
-//			{ // resuming from an interrupted queue generation
-//				// Example query: SELECT rn, full_path, file_id FROM
-//				// (SELECT full_path, file_id, ROW_NUMBER() OVER (ORDER BY file_id) rn FROM BBLEARN_CMS_DOC.xyf_urls)
-//				// WHERE rn > 123
-//				query = "SELECT rn, "+ dataColumnNames + info.getRowIdKey() + " FROM " +
-//						"(SELECT "+ dataColumnNames + info.getRowIdKey() +", ROW_NUMBER() OVER " +
-//						"(ORDER BY "+ info.getRowIdKey() +") rn FROM "+ info.getTableName(conn) +") " +
-//						"WHERE rn > " + queueOffset;
-//			}
-//			else
-//			{ // starting a new queue generation
-//				query = "SELECT rownum, "+ dataColumnNames + info.getRowIdKey() + " FROM "+
-//					info.getTableName(conn) +" ORDER BY " + info.getRowIdKey();
-//			}
-			PreparedStatement queryCompiled = conn.prepareStatement(info.getQueueQuery(conn, queueOffset));
 			queryCompiled.setFetchSize(CSIndexJob.BATCHSIZE); // limit the number of rows we're pre-fetching
 
 			int count = 0;
 
 			ResultSet res = queryCompiled.executeQuery();
+			processor.init(info);
+			// the same row is handed to the processor each time, so the loop doesn't allocate per row
+			ResultSetScanRow row = new ResultSetScanRow(res, info);
+			ProgressEvents progress = ProgressEvents.getInstance();
+			IndexMetrics metrics = IndexMetrics.getInstance();
 			boolean isInterrupted = false;
+			int unrecorded = 0;
 			// iterate through the results
 			while (res.next())
 			{
-				// call the processor on each result
-				Map<String, String> result = new HashMap<>();
-				// add the mandatory rownum to result
-				result.put("rownum", res.getString(1));
-				// add the mandatory row id  to result
-				result.put(info.getRowIdKey(), res.getString(info.getRowIdKey()));
-				// add the columns that the user specified they want
-				for (String name: info.getDataColumnNames())
-				{
-					result.put(name, res.getString(name));
+				// call the processor on each result, offset is from the start of the full scan
+				row.setOffset(queueOffset + count + 1);
+				processor.scan(row);
+				if (++unrecorded >= RECORD_INTERVAL)
+				{ // both counters are shared between threads, so don't touch them for every row
+					progress.recordRows(unrecorded);
+					metrics.recordRows(unrecorded);
+					unrecorded = 0;
 				}
-				processor.scan(result);
 
-				// Note: The interrupted flag is cleared by calling interrupted(), so must store it
-				isInterrupted = Thread.interrupted();
+				// Note: The interrupted flag is cleared by calling interrupted(), so must store it, and must not lose
+				// an interrupt that arrived before we've gone through the minimum number of rows
+				isInterrupted = Thread.interrupted() || isInterrupted;
 				if (count >= CSIndexJob.BATCHSIZE && isInterrupted)
 				{
 					logger.debug("Resumable Scan Interrupted.");
@@ -129,7 +103,10 @@ public class ResumableScan implements Runnable
 				}
 				count++;
 			}
+			progress.recordRows(unrecorded);
+			metrics.recordRows(unrecorded);
 			// make sure the last batch of files are added
+			cleanedUp = true;
 			processor.cleanup(isInterrupted);
 			res.close();
 			queryCompiled.close();
@@ -147,11 +124,79 @@ public class ResumableScan implements Runnable
 		{
 			logger.error("Database error, stopping index job.", e);
 			setError(e);
+		} catch (PersistenceRuntimeException e)
+		{
+			logger.error("Database error, stopping index job.", e);
+			setError(e);
+		} finally
+		{
+			if (!cleanedUp)
+			{ // we stopped on an error
+				processor.abort();
+			}
+			if (conn != null)
+				cm.releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Split the table described by info into num partitions of roughly equal row id ranges. The last partition
+	 * is left open ended so that it also picks up rows added while the scan is running.
+	 *
+	 * @param info the table to partition, should not be a resume
+	 * @param num number of partitions wanted
+	 * @return list of partitions, fewer than num if the table doesn't have enough rows to split
+	 * @throws InaccessibleDbException
+	 */
+	public static List<ScanPartition> planPartitions(ResumableScanInfo info, int num) throws InaccessibleDbException
+	{
+		ConnectionManager cm = DbInit.getConnectionManager(info.getTableName());
+		Connection conn = null;
+		List<ScanPartition> partitions = new ArrayList<>();
+		try
+		{
+			conn = cm.getConnection();
+			PreparedStatement stmt = conn.prepareStatement(info.getRowIdRangeQuery(conn));
+			ResultSet res = stmt.executeQuery();
+			long min = 0;
+			long max = 0;
+			if (res.next())
+			{
+				min = res.getLong(1);
+				max = res.getLong(2);
+			}
+			res.close();
+			stmt.close();
+
+			// the first partition starts right before the smallest id
+			long lower = Math.max(min - 1, 0);
+			long step = (max - lower) / num;
+			if (step < 1)
+			{ // not enough rows to split, just do it all in one partition
+				num = 1;
+			}
+			for (int i = 0; i < num; i++)
+			{
+				long upper = lower + step;
+				if (i == num - 1)
+				{ // last partition, no upper bound
+					upper = 0;
+				}
+				partitions.add(new ScanPartition(i, lower, upper));
+				lower = upper;
+			}
+		} catch (SQLException e)
+		{
+			throw new InaccessibleDbException("Couldn't execute query", e);
+		} catch (ConnectionNotAvailableException e)
+		{
+			throw new InaccessibleDbException("Unable to connect to db", e);
 		} finally
 		{
 			if (conn != null)
 				cm.releaseConnection(conn);
 		}
+		return partitions;
 	}
 
 	public boolean hasError()
@@ -7,9 +7,9 @@ import java.util.List;
 
 /**
  * Stores information necessary for scan resume. The strategy we're using is to
- * first try to locate the last item processed in the table, then pick up from
- * there. If the last item processed is not there (might've been deleted since
- * we last saw it), then we just blindly pick back up from its former location.
+ * walk the table in order of a unique, indexed row id and remember the id of the
+ * last item processed. On resume, we just seek past that id, which still works
+ * if the last item processed has been deleted since we last saw it.
  *
  */
 public class ResumableScanInfo
@@ -24,11 +24,19 @@ public class ResumableScanInfo
 	private String rowIdName;
 	/** The actual value of the unique id for identifying the last item. */
 	private long rowIdVal;
-	/** The location (offset from the first entry in the table) at the time of the last item */
+	/** The location (offset from the first entry in the table) at the time of the last item, only used for progress reporting */
 	private long rowOffset;
+	/** Only scan rows with ids less than or equal to this, 0 if the scan should go to the end of the table */
+	private long rowIdUpperBound;
 
 	public ResumableScanInfo(String tableName, List<String> dataKeys,
 			String rowIdName, long rowIdVal, long rowOffset)
+	{
+		this(tableName, dataKeys, rowIdName, rowIdVal, rowOffset, 0);
+	}
+
+	public ResumableScanInfo(String tableName, List<String> dataKeys,
+			String rowIdName, long rowIdVal, long rowOffset, long rowIdUpperBound)
 	{
 		super();
 		this.tableName = tableName;
@@ -36,6 +44,15 @@ public class ResumableScanInfo
 		this.rowIdName = rowIdName;
 		this.rowIdVal = rowIdVal;
 		this.rowOffset = rowOffset;
+		this.rowIdUpperBound = rowIdUpperBound;
+	}
+
+	/**
+	 * Scan info for a single partition of a partitioned scan.
+	 */
+	public ResumableScanInfo(String tableName, List<String> dataKeys, String rowIdName, ScanPartition partition)
+	{
+		this(tableName, dataKeys, rowIdName, partition.getResumeId(), partition.getOffset(), partition.getUpperBound());
 	}
 
 	public String getRowIdKey()
@@ -51,6 +68,16 @@ public class ResumableScanInfo
 		return rowOffset;
 	}
 
+	public long getRowIdUpperBound()
+	{
+		return rowIdUpperBound;
+	}
+
+	public boolean hasUpperBound()
+	{
+		return rowIdUpperBound > 0;
+	}
+
 	public String getTableName()
 	{
 		return tableName;
@@ -79,6 +106,22 @@ public class ResumableScanInfo
 		return dataColumnNames;
 	}
 
+	/**
+	 * Look up where a data column is in the scan's rows, see ScanRow.
+	 * @param name column name
+	 * @return position of the column
+	 * @throws IllegalArgumentException if the scan doesn't retrieve the column
+	 */
+	public int getColumnIndex(String name)
+	{
+		int index = dataColumnNames.indexOf(name);
+		if (index < 0)
+		{
+			throw new IllegalArgumentException("Column " + name + " is not part of the scan on " + tableName);
+		}
+		return index;
+	}
+
 	public String getDataColumnNameString() {
 		String dataColumnNames = "";
 		for (String name : getDataColumnNames())
@@ -89,74 +132,55 @@ public class ResumableScanInfo
 		return dataColumnNames;
 	}
 
-	public String getQueueQuery(Connection conn, long queueOffset) throws SQLException {
-		if (queueOffset > 0) {
-			// resuming from an interrupted queue generation
-			return getResumeQueueQuery(conn, queueOffset);
-		} else {
-			return getNewQueueQuery(conn);
-		}
-	}
-
-	public String getNewQueueQuery(Connection conn) throws SQLException {
-		String query;
-		DatabaseMetaData meta = conn.getMetaData();
-		if (meta.getDatabaseProductName().equals("PostgreSQL")) {
-			query = "SELECT " + getRowIdKey() + ", "+ getDataColumnNameString() + getRowIdKey() + " FROM "+
-					getTableName(conn) +" ORDER BY " + getRowIdKey();
-		} else {
-			query = "SELECT rownum, "+ getDataColumnNameString() + getRowIdKey() + " FROM "+
-					getTableName(conn) +" ORDER BY " + getRowIdKey();
-		}
-
-		return query;
+	/**
+	 * Whether there's a last processed item we should be resuming after.
+	 * @return true if this scan was interrupted previously and should pick up where it left off
+	 */
+	public boolean isResume()
+	{
+		return rowIdVal > 0;
 	}
 
-	public String getResumeQueueQuery(Connection conn, long queueOffset) throws SQLException {
+	/**
+	 * Build the scan query. Rows are always walked in row id order so that the id of the last row processed is
+	 * enough to pick back up where we stopped. Resuming is a keyset seek (WHERE id > last id), which is an index
+	 * range scan on the row id, so the cost of a resume doesn't grow with the size of the table the way counting
+	 * our way back to the stored offset with ROW_NUMBER() did. This works even if the last processed row has since
+	 * been deleted. The stored offset is now only used to report progress.
+	 *
+	 * Example query: SELECT full_path, file_id FROM BBLEARN_CMS_DOC.xyf_urls WHERE file_id > ? ORDER BY file_id
+	 *
+	 * @param conn Connection that query is running based on
+	 * @return query string, if resuming, the last processed row id needs to be bound as the first parameter, followed
+	 * by the upper bound if there is one
+	 * @throws SQLException
+	 */
+	public String getQueueQuery(Connection conn) throws SQLException {
 		StringBuilder query = new StringBuilder();
-		switch (conn.getMetaData().getDatabaseProductName()) {
-			case "PostgreSQL":
-				// Postgres and Oracle can use the same query
-			case "Oracle":
-				// Example query: SELECT rn, full_path, file_id FROM
-				// (SELECT full_path, file_id, ROW_NUMBER() OVER (ORDER BY file_id) as rn FROM BBLEARN_CMS_DOC.xyf_urls)
-				// WHERE rn > 123
-				query.append("SELECT rn, ").append(getDataColumnNameString()).append(getRowIdKey()).append(" ");
-				query.append("FROM ");
-				query.append("  (SELECT ").append(getDataColumnNameString()).append(getRowIdKey()).append(", ROW_NUMBER() OVER ");
-				query.append("  (ORDER BY ").append(getRowIdKey()).append(") rn FROM ").append(getTableName(conn)).append(") a ");
-				query.append("WHERE rn > ").append(queueOffset);
-				break;
-			default:
-				throw new RuntimeException("Unsupported database " + conn.getMetaData().getDatabaseProductName());
+		query.append("SELECT ").append(getDataColumnNameString()).append(getRowIdKey()).append(" ");
+		query.append("FROM ").append(getTableName(conn)).append(" ");
+		if (isResume() && hasUpperBound()) {
+			query.append("WHERE ").append(getRowIdKey()).append(" > ? AND ").append(getRowIdKey()).append(" <= ? ");
+		} else if (isResume()) {
+			query.append("WHERE ").append(getRowIdKey()).append(" > ? ");
+		} else if (hasUpperBound()) {
+			query.append("WHERE ").append(getRowIdKey()).append(" <= ? ");
 		}
+		query.append("ORDER BY ").append(getRowIdKey());
 
 		return query.toString();
 	}
 
-	public String getQueueOffsetQuery(Connection conn) throws SQLException {
-		StringBuilder query = new StringBuilder();
-		switch (conn.getMetaData().getDatabaseProductName()) {
-			case "PostgreSQL":
-			case "Oracle":
-				// Example Query: SELECT * FROM (SELECT row_number() OVER (ORDER BY file_id) rn, file_id FROM bblearn_cms_doc.xyf_urls) a WHERE file_id=123
-				// old oracle Example Query: SELECT * FROM (SELECT rownum, file_id FROM bblearn_cms_doc.xyf_urls ORDER BY file_id) WHERE file_id=123
-				query.append("SELECT * FROM (");
-				query.append("  SELECT row_number() OVER (ORDER BY ").append(getRowIdKey()).append(") rn, ").append(getRowIdKey());
-				query.append("  FROM ").append(getTableName(conn)).append(") a ");
-				query.append("WHERE ").append(getRowIdKey()).append(" = ?");
-				break;
-//				query.append("SELECT * FROM (");
-//				query.append("  SELECT rownum, ").append(getRowIdKey());
-//				query.append("  FROM ").append(getTableName(conn));
-//				query.append("  ORDER BY ").append(getRowIdKey()).append(") ");
-//				query.append("WHERE ").append(getRowIdKey()).append(" = ?");
-//				break;
-			default:
-				throw new RuntimeException("Unsupported database " + conn.getMetaData().getDatabaseProductName());
-		}
-
-		return query.toString();
+	/**
+	 * Query for the range of row ids in the table, used to split the table up for a partitioned scan.
+	 * Both aggregates can be answered from the ends of the row id index.
+	 *
+	 * @param conn Connection that query is running based on
+	 * @return query string
+	 * @throws SQLException
+	 */
+	public String getRowIdRangeQuery(Connection conn) throws SQLException {
+		return "SELECT MIN(" + getRowIdKey() + "), MAX(" + getRowIdKey() + ") FROM " + getTableName(conn);
 	}
 
 }
@@ -0,0 +1,75 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks how far a scan can safely resume from when rows are finished out of order. The checkpoint only moves past
+ * a row once every row before it has been finished, rows finished early are held until the gap before them closes.
+ *
+ * Not thread safe, callers have to synchronize.
+ */
+class ScanCheckpoint
+{
+	// rows that have been finished but can't be checkpointed yet as an earlier row isn't finished, offset to row id
+	private Map<Long, Long> finishedRows = new HashMap<>();
+	// the offset of the row that the checkpoint is waiting on
+	private long nextOffset;
+	private long offset;
+	private long rowId;
+
+	/**
+	 * @param offset offset of the last row already covered, 0 if the scan starts from the beginning
+	 * @param rowId row id of the last row already covered
+	 */
+	ScanCheckpoint(long offset, long rowId)
+	{
+		this.offset = offset;
+		this.rowId = rowId;
+		this.nextOffset = offset + 1;
+	}
+
+	/**
+	 * Record that a row has been finished and move the checkpoint up as far as we can.
+	 * @param rowOffset offset of the row in the scan, rows are numbered from 1
+	 * @param rowIdVal row id
+	 * @return true if the checkpoint moved
+	 */
+	boolean finish(long rowOffset, long rowIdVal)
+	{
+		finishedRows.put(rowOffset, rowIdVal);
+		boolean moved = false;
+		while (finishedRows.containsKey(nextOffset))
+		{
+			rowId = finishedRows.remove(nextOffset);
+			offset = nextOffset;
+			nextOffset++;
+			moved = true;
+		}
+		return moved;
+	}
+
+	/**
+	 * @return offset of the last row the scan can resume after
+	 */
+	long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * @return row id of the last row the scan can resume after
+	 */
+	long getRowId()
+	{
+		return rowId;
+	}
+
+	/**
+	 * @return how many finished rows are waiting on an earlier row
+	 */
+	int getWaiting()
+	{
+		return finishedRows.size();
+	}
+}
@@ -0,0 +1,101 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+/**
+ * One slice of the row id key space for a partitioned scan. Each partition is scanned by its own
+ * ResumableScan thread and keeps its own resume checkpoint, so it can be picked up independently
+ * of the others after an interruption.
+ *
+ * Serialized as json into the status table, so keep this a plain data holder.
+ */
+public class ScanPartition
+{
+	/** Position of this partition in the partition list */
+	private int index;
+	/** Rows in this partition have ids greater than this */
+	private long lowerBound;
+	/** Rows in this partition have ids less than or equal to this, 0 means there's no upper bound */
+	private long upperBound;
+	/** The id of the last row processed in this partition, 0 if we haven't saved any progress yet */
+	private long lastId;
+	/** How many rows this partition has gone through, only used for progress reporting */
+	private long offset;
+	/** Whether this partition has been scanned to completion */
+	private boolean finished;
+
+	/** For gson deserialization */
+	private ScanPartition()
+	{
+		this(0, 0, 0);
+	}
+
+	public ScanPartition(int index, long lowerBound, long upperBound)
+	{
+		this.index = index;
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+	}
+
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public long getLowerBound()
+	{
+		return lowerBound;
+	}
+
+	public long getUpperBound()
+	{
+		return upperBound;
+	}
+
+	public long getLastId()
+	{
+		return lastId;
+	}
+
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	/**
+	 * The id the scan for this partition should start after, either the last row we've processed
+	 * or the lower bound of the partition if we haven't started on it.
+	 * @return row id to resume after
+	 */
+	public long getResumeId()
+	{
+		return Math.max(lowerBound, lastId);
+	}
+
+	public void saveProgress(long offset, long lastId)
+	{
+		this.offset = offset;
+		this.lastId = lastId;
+	}
+
+	public void setFinished(boolean finished)
+	{
+		this.finished = finished;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ScanPartition{" +
+				"index=" + index +
+				", lowerBound=" + lowerBound +
+				", upperBound=" + upperBound +
+				", lastId=" + lastId +
+				", offset=" + offset +
+				", finished=" + finished +
+				'}';
+	}
+}
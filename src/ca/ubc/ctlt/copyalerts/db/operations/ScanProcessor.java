@@ -3,15 +3,27 @@ package ca.ubc.ctlt.copyalerts.db.operations;
 import blackboard.persist.PersistenceException;
 import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
 
-import java.util.Map;
+import java.sql.SQLException;
 
 public abstract class ScanProcessor
 {
 	/**
-	 * @param result Key is the name of the data columns we're interested in.
+	 * Called once before the scan starts, processors should look up the positions of the columns they need here,
+	 * see ResumableScanInfo.getColumnIndex().
+	 * @param info the scan this processor is going to be called for
+	 */
+	public void init(ResumableScanInfo info)
+	{
+	}
+
+	/**
+	 * Called for every row in the scan. The row object is reused, so don't hold on to it.
+	 * @param row the current row
 	 * @throws PersistenceException
+	 * @throws SQLException
 	 */
-	abstract public void scan(Map<String, String> result) throws PersistenceException;
+	abstract public void scan(ScanRow row) throws PersistenceException, SQLException;
+
 	/**
 	 * Since processors work on batch sizes, there might be stuff remaining
 	 * in the batch that hasn't been processed, so we need a way to trigger
@@ -21,4 +33,12 @@ public abstract class ScanProcessor
 	 * interruption or we actually run to completion
 	 */
 	abstract public void cleanup(boolean wasInterrupted);
+
+	/**
+	 * Called instead of cleanup() when the scan stopped because of an error. Processors that started threads or
+	 * hold other resources should release them here. Nothing should be saved, as the scan didn't finish cleanly.
+	 */
+	public void abort()
+	{
+	}
 }
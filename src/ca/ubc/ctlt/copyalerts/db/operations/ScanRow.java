@@ -0,0 +1,38 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import java.sql.SQLException;
+
+/**
+ * The row a ResumableScan is currently on. The same object is reused for every row of a scan, so processors
+ * should read what they need in scan() and not hold on to it.
+ *
+ * Columns are addressed by their position in ResumableScanInfo.getDataColumnNames(), look them up once with
+ * ResumableScanInfo.getColumnIndex() instead of by name for every row.
+ */
+public interface ScanRow
+{
+	/**
+	 * @return the row's offset from the start of the full scan, starting at 1
+	 */
+	long getOffset();
+
+	/**
+	 * @return the value of the row id column
+	 * @throws SQLException
+	 */
+	long getRowId() throws SQLException;
+
+	/**
+	 * @param column position of the column in the scan's data columns
+	 * @return column value
+	 * @throws SQLException
+	 */
+	String getString(int column) throws SQLException;
+
+	/**
+	 * @param column position of the column in the scan's data columns
+	 * @return column value, 0 if null
+	 * @throws SQLException
+	 */
+	long getLong(int column) throws SQLException;
+}
@@ -1,17 +1,21 @@
 package ca.ubc.ctlt.copyalerts.indexer;
 
-import blackboard.cms.filesystem.CSContext;
 import blackboard.cms.filesystem.CSFile;
 import blackboard.persist.PersistenceException;
 import ca.ubc.ctlt.copyalerts.configuration.HostResolver;
 import ca.ubc.ctlt.copyalerts.configuration.SavedConfiguration;
+import ca.ubc.ctlt.copyalerts.db.FilesTable;
 import ca.ubc.ctlt.copyalerts.db.HostsTable;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
+import ca.ubc.ctlt.copyalerts.db.ProgressCounters;
 import ca.ubc.ctlt.copyalerts.db.QueueTable;
 import ca.ubc.ctlt.copyalerts.db.StatusTable;
 import ca.ubc.ctlt.copyalerts.db.entities.File;
 import ca.ubc.ctlt.copyalerts.db.entities.QueueItem;
 import ca.ubc.ctlt.copyalerts.db.entities.Status;
 import ca.ubc.ctlt.copyalerts.db.operations.*;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.quartz.DateBuilder.IntervalUnit;
 import org.quartz.*;
 import org.quartz.Trigger.CompletedExecutionInstruction;
@@ -21,8 +25,14 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.quartz.DateBuilder.futureDate;
 import static org.quartz.JobBuilder.newJob;
@@ -38,6 +48,12 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 
 	private final static String JOBGROUP = "CSIndexJobGroup";
 
+	// the content system table that we scan to generate the queue
+	private final static String QUEUE_SOURCE_TABLE = "bblearn_cms_doc.xyf_urls";
+	private final static String QUEUE_SOURCE_ROW_ID = "file_id";
+	// how long a worker gets to finish a batch it claimed off the queue before someone else can take it over
+	private final static long QUEUE_LEASE_MILLIS = 30 * 60 * 1000;
+
 	// Execute will check this variable periodically. If true, it'll immediately stop execution.
 	private Boolean stop = false;
 	private final Object stopLock = new Object();
@@ -49,6 +65,8 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 	private Timestamp started = new Timestamp(0);
 	private Timestamp ended = new Timestamp(0);
 	private String hostname = HostResolver.getHostname();
+	// course and instructor lookups are remembered for the duration of a run
+	private CourseLookupCache courseLookups = null;
 
 	public CSIndexJob()
 	{
@@ -72,9 +90,13 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 
 		logger.info("Indexing start at " + started + " with " + st.toString());
 		updateRunningStatus(Status.STATUS_RUNNING, started, ended);
+		reconcileCounters();
 
 		// load configuration
 		SavedConfiguration config = SavedConfiguration.getInstance();
+		// start each run with empty caches so we pick up course changes since the last run
+		courseLookups = new CourseLookupCache(config.getRecipientRoles());
+		IndexMetrics.getInstance().runStarted(courseLookups);
 
 		// Implement execution time limit (if needed)
 		// Basically, we'll have a trigger that will fire after the time limit has passed.
@@ -113,9 +135,25 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 			ended = new Timestamp((new Date()).getTime());
 			updateRunningStatus(Status.STATUS_STOPPED, started, ended);
 		}
+		IndexMetrics.getInstance().runEnded();
+		reconcileCounters();
 		logger.info("Indexing ended at " + ended + " with " + st.toString());
 	}
 
+	/**
+	 * Correct any drift in the progress counters, the run can carry on without it.
+	 */
+	private void reconcileCounters()
+	{
+		try
+		{
+			ProgressCounters.getInstance().reconcile();
+		} catch (InaccessibleDbException e)
+		{
+			logger.warn("Unable to reconcile progress counters.", e);
+		}
+	}
+
 	private void setupTrigger(SavedConfiguration config) throws SchedulerException {
 		if (!config.isLimited()) {
 			return;
@@ -148,6 +186,7 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 	{
 		// Save the fact that we've started running
 		st.saveRunStats(status, started, ended);
+		ProgressEvents.getInstance().statusChanged(status);
 		logger.info("Updated status to " + status);
 	}
 
@@ -163,10 +202,14 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 
 		// Remove the execution time limit, if any, that were placed on indexing
 		removeTrigger();
+		IndexMetrics.getInstance().runEnded();
+		// don't leave this run's last progress counter adjustments waiting
+		ProgressCounters.getInstance().flush();
 
 		// Update the execution status
 		if (st != null) {
 			st.saveRunStats(Status.STATUS_ERROR, started, ended);
+			ProgressEvents.getInstance().statusChanged(Status.STATUS_ERROR);
 		} else {
 			logger.error("Exception clean up occurred before status table was read.");
 		}
@@ -185,53 +228,95 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 		try
 		{
 			String stage = st.getStage();
+			ProgressEvents.getInstance().stageStarted(stage);
+			IndexMetrics.getInstance().stageStarted(stage);
 			// Stage 1: Queue Generation
 			if (stage.equals(Status.STATUS_STAGE_QUEUE))
 			{
-				if (stageGenerateQueue())
+				if (CyclePlan.isNewCycle(st.getLastQueueFileid(), st.getQueuePartitions()))
+				{ // not resuming, so this is the start of a new cycle
+					chooseRunMode(config);
+				}
+				if (stageGenerateQueue(config))
 				{ // stopped by interrupt, so we stop here
 					return true;
 				}
 				else
 				{ // no interrupts encountered and queue generation completed successfully, advance to next stage.
-					st.saveStage(Status.STATUS_STAGE_NEWFILES);
-					stage = Status.STATUS_STAGE_NEWFILES;
+					stage = saveStage(Status.STATUS_STAGE_NEWFILES);
 				}
 			}
-			// the next two stages needs an index generator
-			IndexGenerator indexGen = new IndexGenerator(config.getAttributes());
+			// the next two stages needs the metadata attributes to check for tagging
+			ArrayList<String> attributes = config.getAttributes();
 			// Stage 2: Add New Files From Queue
 			if (stage.equals(Status.STATUS_STAGE_NEWFILES))
 			{
-				if (stageAddNewFiles(indexGen))
+				if (stageAddNewFiles(config, attributes))
 				{ // stopped by interrupt, halt here
 					return true;
 				}
 				else
-				{ // advance to next next stage
-					st.saveStage(Status.STATUS_STAGE_UPDATE);
-					stage = Status.STATUS_STAGE_UPDATE;
+				{ // advance to next next stage, incremental runs leave checking existing files to the next full sweep
+					stage = saveStage(CyclePlan.stageAfterNewFiles(st.getRunMode()));
+					if (!stage.equals(Status.STATUS_STAGE_UPDATE))
+					{
+						logger.info("Incremental run, skipping Stage: Update Index");
+					}
 				}
 			}
 			// Stage 3: Update Existing Index
 			if (stage.equals(Status.STATUS_STAGE_UPDATE))
 			{
-				if (stageUpdateIndex(indexGen))
+				if (stageUpdateIndex(config, attributes))
 				{ // stopped by interrupt, halt here
 					return true;
 				}
 				else
 				{ // reset stage system back to first stage
-					st.saveStage(Status.STATUS_STAGE_QUEUE);
+					saveStage(Status.STATUS_STAGE_QUEUE);
+					st.saveLastFullSweep(new Timestamp((new Date()).getTime()));
 				}
 			}
 		} catch (PersistenceException e) {
 			logger.error("Could not persist. Stop index job", e);
 			throw new JobExecutionException(e);
+		} finally {
+			courseLookups.logStats();
 		}
 		return false;
 	}
 
+	/**
+	 * Move on to the given stage and let anyone watching the progress know.
+	 * @param stage one of the Status.STATUS_STAGE_* values
+	 * @return stage
+	 */
+	private String saveStage(String stage)
+	{
+		st.saveStage(stage);
+		ProgressEvents.getInstance().stageStarted(stage);
+		IndexMetrics.getInstance().stageStarted(stage);
+		return stage;
+	}
+
+	/**
+	 * Decide whether the cycle we're starting is a full sweep or an incremental run. Incremental runs need a
+	 * watermark from a previous queue generation and a recent enough full sweep.
+	 * @param config saved configuration
+	 */
+	private void chooseRunMode(SavedConfiguration config)
+	{
+		String mode = CyclePlan.chooseRunMode(config.isIncremental(), st.getQueueWatermark(), st.getLastFullSweep(),
+				started, config.getFullSweepDays());
+		st.saveRunMode(mode);
+		if (CyclePlan.needsNewGeneration(mode))
+		{ // entries not confirmed by this cycle get swept at the end of it
+			st.nextGeneration();
+		}
+		logger.info("Starting a new " + mode + " cycle, last full sweep: " + st.getLastFullSweep() +
+				", watermark: " + st.getQueueWatermark() + ", generation: " + st.getGeneration());
+	}
+
 	/**
 	 * monitor the thread for errors and notify it if the job needs to stop
 	 * @param thread thread to monitor
@@ -240,19 +325,27 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 	 * @throws JobExecutionException
      */
 	private boolean monitorThread(Thread thread, ResumableScan scanner) throws JobExecutionException {
-		while (thread.isAlive())
+		return monitorThreads(Collections.singletonList(thread), Collections.singletonList(scanner));
+	}
+
+	/**
+	 * monitor a group of scan threads for errors and notify all of them if the job needs to stop. If any
+	 * one of them fails, the rest are stopped too so that they can save their resume data.
+	 * @param threads threads to monitor
+	 * @param scanners scanners running, in the same order as the threads
+	 * @return true if threads are interrupted, false otherwise
+	 * @throws JobExecutionException
+	 */
+	private boolean monitorThreads(List<Thread> threads, List<ResumableScan> scanners) throws JobExecutionException {
+		while (isAnyAlive(threads))
 		{
 			try
 			{
 				Thread.sleep(1000); // check for error every second
-				if (scanner.hasError())
-				{
-					throw new JobExecutionException(scanner.getError());
-				}
+				checkScanErrors(threads, scanners);
 				if (syncStop())
 				{ // notify the job that we need to stop
-					thread.interrupt();
-					thread.join();
+					stopThreads(threads);
 					return true;
 				}
 			} catch (InterruptedException e)
@@ -260,9 +353,57 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 				logger.debug("Interrupt Exception", e);
 			}
 		}
+		// make sure we don't miss an error that happened right before the scans finished
+		checkScanErrors(threads, scanners);
 		return false;
 	}
 
+	private void checkScanErrors(List<Thread> threads, List<ResumableScan> scanners) throws JobExecutionException
+	{
+		for (ResumableScan scanner : scanners)
+		{
+			if (scanner.hasError())
+			{
+				stopThreads(threads);
+				throw new JobExecutionException(scanner.getError());
+			}
+		}
+	}
+
+	private boolean isAnyAlive(List<Thread> threads)
+	{
+		for (Thread thread : threads)
+		{
+			if (thread.isAlive())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Interrupt all the threads and wait for them to save their progress and exit.
+	 * @param threads threads to stop
+	 */
+	private void stopThreads(List<Thread> threads)
+	{
+		for (Thread thread : threads)
+		{
+			thread.interrupt();
+		}
+		for (Thread thread : threads)
+		{
+			try
+			{
+				thread.join();
+			} catch (InterruptedException e)
+			{
+				logger.debug("Interrupted while waiting for scan thread to stop", e);
+			}
+		}
+	}
+
 	/**
 	 * Generate the list of files to check for indexing. Basically scan all entries in
 	 * bblearn_cms_doc.xyf_urls for course files (starts with /courses) and store
@@ -271,13 +412,16 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 	 * Using the API to iterate through the content system turns out to be too memory consuming
 	 * so let's try reading the database directly.
 	 *
+	 * If configured to use more than 1 partition, the file_id key space is split into ranges
+	 * and each range is scanned in parallel.
+	 *
+	 * @param config saved configuration
 	 * @return if the job is ended by interruption
 	 * @throws JobExecutionException
 	 */
-	private boolean stageGenerateQueue() throws JobExecutionException
+	private boolean stageGenerateQueue(SavedConfiguration config) throws JobExecutionException
 	{
 		logger.info("Starting Stage: Queue Generation");
-		ScanProcessor processor = new QueueScanProcessor(st);
 		// set the column names for the data that the processor wants
 		List<String> dataKeys = new ArrayList<>();
 		dataKeys.add("full_path");
@@ -287,17 +431,88 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 		long queueOffset;
 		lastQueueFileid = st.getLastQueueFileid();
 		queueOffset = st.getQueueOffset();
-		logger.debug("Queue Resume Offset: " + queueOffset + " File ID: " + lastQueueFileid);
+		List<ScanPartition> partitions = st.getQueuePartitions();
+		// incremental runs only need to look at files added since the last queue generation
+		boolean incremental = st.isIncrementalRun();
+		long watermark = st.getQueueWatermark();
+		// the largest file id we've seen, becomes the new watermark once we're done
+		long lastFileId = 0;
+
+		if (!incremental && partitions.isEmpty() && lastQueueFileid == 0 && config.getQueuePartitions() > 1)
+		{ // starting a new partitioned queue generation, split up the table
+			try
+			{
+				partitions = ResumableScan.planPartitions(
+						new ResumableScanInfo(QUEUE_SOURCE_TABLE, dataKeys, QUEUE_SOURCE_ROW_ID, 0, 0),
+						config.getQueuePartitions());
+			} catch (InaccessibleDbException e)
+			{
+				throw new JobExecutionException(e);
+			}
+			st.saveQueuePartitions(partitions);
+		}
 
-		// spawn the thread that scans all files to generate the queue
-		ResumableScanInfo info = new ResumableScanInfo("bblearn_cms_doc.xyf_urls", dataKeys, "file_id", lastQueueFileid, queueOffset);
-		ResumableScan scanner = new ResumableScan(info, processor);
+		boolean interrupted;
+		if (partitions.isEmpty())
+		{
+			long startFileId = incremental ? Math.max(lastQueueFileid, watermark) : lastQueueFileid;
+			logger.debug("Queue Resume Offset: " + queueOffset + " File ID: " + startFileId);
 
-		Thread genQueueThread = new Thread(scanner);
-		genQueueThread.start();
+			// spawn the thread that scans all files to generate the queue
+			ResumableScanInfo info = new ResumableScanInfo(QUEUE_SOURCE_TABLE, dataKeys, QUEUE_SOURCE_ROW_ID, startFileId, queueOffset);
+			QueueScanProcessor processor = new QueueScanProcessor(st);
+			ResumableScan scanner = new ResumableScan(info, processor);
+
+			Thread genQueueThread = new Thread(scanner);
+			genQueueThread.start();
+
+			interrupted = monitorThread(genQueueThread, scanner);
+			lastFileId = Math.max(startFileId, processor.getLastFileId());
+		}
+		else
+		{
+			// spawn a thread for each partition that still needs scanning, each gets its own connection
+			List<Thread> threads = new ArrayList<>();
+			List<ResumableScan> scanners = new ArrayList<>();
+			List<QueueScanProcessor> processors = new ArrayList<>();
+			for (ScanPartition partition : partitions)
+			{
+				if (partition.isFinished())
+				{
+					continue;
+				}
+				logger.debug("Queue Partition Resume: " + partition);
+				ResumableScanInfo info = new ResumableScanInfo(QUEUE_SOURCE_TABLE, dataKeys, QUEUE_SOURCE_ROW_ID, partition);
+				QueueScanProcessor processor = new QueueScanProcessor(st, partition);
+				ResumableScan scanner = new ResumableScan(info, processor);
+				processors.add(processor);
+				Thread thread = new Thread(scanner, "CSIndexJob-queue-" + partition.getIndex());
+				threads.add(thread);
+				scanners.add(scanner);
+			}
+			for (Thread thread : threads)
+			{
+				thread.start();
+			}
+
+			interrupted = monitorThreads(threads, scanners);
+			if (!interrupted)
+			{ // all partitions are done, clear out the resume data
+				for (ScanPartition partition : st.getQueuePartitions())
+				{ // covers partitions that were finished in a previous run
+					lastFileId = Math.max(lastFileId, partition.getLastId());
+				}
+				for (QueueScanProcessor processor : processors)
+				{
+					lastFileId = Math.max(lastFileId, processor.getLastFileId());
+				}
+				st.saveQueuePartitions(new ArrayList<ScanPartition>());
+			}
+		}
 
-		boolean interrupted = monitorThread(genQueueThread, scanner);
 		if (!interrupted) {
+			// everything up to here is in the queue, the next incremental run can start after it
+			st.saveQueueWatermark(Math.max(watermark, lastFileId));
 			logger.info("Ended Stage: Queue Generation");
 		}
 
@@ -309,83 +524,179 @@ public class CSIndexJob implements InterruptableJob, TriggerListener
 	 * loads the file meta (user_id, file_id, course) from content system and store them
 	 * into file table
 	 *
-	 * @param indexGen index generator
+	 * Each round loads a batch from the queue for every worker and processes the batches concurrently.
+	 * Paths are only removed from the queue once their batch has been completely processed, so an
+	 * interrupted run picks up unfinished batches next time.
+	 *
+	 * @param config saved configuration
+	 * @param attributes metadata attributes used to check if a file is tagged
 	 * @return if the job is ended by interruption
 	 * @throws JobExecutionException
      */
-	private boolean stageAddNewFiles(IndexGenerator indexGen) throws JobExecutionException
+	private boolean stageAddNewFiles(SavedConfiguration config, ArrayList<String> attributes) throws JobExecutionException
 	{
 		logger.info("Starting Stage: Adding New Files with Metadata");
-		List<QueueItem> paths;
-		QueueTable queue = new QueueTable();
+		int workers = config.getNewFilesWorkers();
+		logger.debug("Using " + workers + " workers");
+		ExecutorService pool = Executors.newFixedThreadPool(workers,
+				new ThreadFactoryBuilder().setNameFormat("CSIndexJob-newfiles-%d").build());
 		try
 		{
-			ArrayList<CSFile> filesBatch = new ArrayList<>();
-			while (!syncStop())
-			{
-				paths = queue.load();
-				if (paths.isEmpty()) {
-					break;
-				}
-				logger.debug("Loaded " + paths.size() + " paths from queue table");
-				for (QueueItem p : paths)
-				{
-					CSContext ctx = CSContext.getContext();
-					// Give ourself permission to do anything in the Content
-					// Collections.
-					// Must do this cause we don't have a real request context
-					// that many of the CS API calls
-					// require when you're not a superuser.
-					ctx.isSuperUser(true);
-					// Retrieve file entry
-					CSFile file = indexGen.getCSFileFromPath(p.getFilePath());
-					if (file == null)
-						continue; // skip, not a valid file path
-					filesBatch.add(file);
-					// Retrieve metadata
-					if (filesBatch.size() >= BATCHSIZE)
-					{
-						int num = indexGen.process(filesBatch);
-						logger.debug("Processed " + num + " files to file table, skipped " + (filesBatch.size() - num) + " files");
-						filesBatch.clear();
-						if (syncStop())
-						{
-							break;
-						}
-					}
-				}
+			// a job that died on this host can leave files claimed, there's no one left to finish them, so let them go
+			new QueueTable().releaseHost(HostResolver.getHostname());
 
-				// remove processed paths from queue and load next batch of paths
-				queue.pop();
+			// each worker keeps claiming batches off the queue until it's empty
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < workers; i++)
+			{
+				results.add(pool.submit(new NewFilesWorker(attributes)));
 			}
-			if (!filesBatch.isEmpty())
+			int processed = 0;
+			for (Future<Integer> result : results)
 			{
-				indexGen.process(filesBatch);
-				logger.debug("Processed " + filesBatch.size() + " files to file table");
-				filesBatch.clear();
+				processed += result.get();
 			}
+			logger.debug("Processed " + processed + " paths from queue table");
 			if (syncStop())
 			{
 				return true;
 			}
-		} catch (PersistenceException e)
+		} catch (InaccessibleDbException e)
+		{
+			logger.error("Could not release claims on queue.", e);
+			throw new JobExecutionException(e);
+		} catch (ExecutionException e)
+		{
+			logger.error("Could not save to database.", e.getCause());
+			throw new JobExecutionException(e.getCause());
+		} catch (InterruptedException e)
 		{
-			logger.error("Could not save to database.", e);
+			logger.error("Interrupted while waiting for workers.", e);
 			throw new JobExecutionException(e);
+		} finally
+		{
+			pool.shutdownNow();
 		}
 		logger.info("Ended Stage: Adding New Files with Metadata");
 		return false;
 	}
 
 	/**
-	 * Scans existing entries in the files database, remove those that have been tagged.
+	 * Processes one batch of queued paths into the file table. Runs in a worker thread, so it creates
+	 * its own index generator, and with it, its own content system context.
+	 */
+	private class NewFilesWorker implements Callable<Integer>
+	{
+		private ArrayList<String> attributes;
+
+		NewFilesWorker(ArrayList<String> attributes)
+		{
+			this.attributes = attributes;
+		}
+
+		/**
+		 * @return number of paths processed
+		 * @throws PersistenceException
+		 * @throws InaccessibleDbException
+		 */
+		@Override
+		public Integer call() throws PersistenceException, InaccessibleDbException
+		{
+			IndexGenerator indexGen = new IndexGenerator(attributes, courseLookups, st.getGeneration());
+			QueueTable queue = new QueueTable();
+			int processed = 0;
+			while (!syncStop())
+			{
+				String owner = QueueTable.newLeaseOwner();
+				List<QueueItem> batch = queue.claim(owner, BATCHSIZE, QUEUE_LEASE_MILLIS);
+				if (batch.isEmpty())
+				{ // nothing left to claim
+					break;
+				}
+				boolean finished = false;
+				try
+				{
+					finished = processBatch(indexGen, batch);
+					if (finished)
+					{ // remove processed paths from queue
+						queue.complete(owner, batch);
+						processed += batch.size();
+						ProgressEvents.getInstance().recordRows(batch.size());
+						IndexMetrics.getInstance().recordRows(batch.size());
+					}
+				} finally
+				{
+					if (!finished)
+					{ // stopped part way or failed, let the batch be claimed again
+						queue.release(owner);
+					}
+				}
+			}
+			return processed;
+		}
+
+		/**
+		 * @return true if the whole batch was processed, false if we stopped part way
+		 * @throws PersistenceException
+		 */
+		private boolean processBatch(IndexGenerator indexGen, List<QueueItem> batch) throws PersistenceException
+		{
+			List<CSFile> files = new ArrayList<>();
+			for (QueueItem p : batch)
+			{
+				if (syncStop())
+				{
+					return false;
+				}
+				// Retrieve file entry
+				CSFile file = indexGen.getCSFileFromPath(p.getFilePath());
+				if (file == null)
+					continue; // skip, not a valid file path
+				files.add(file);
+			}
+			// Retrieve metadata
+			int num = indexGen.process(files);
+			logger.debug("Processed " + num + " files to file table, skipped " + (files.size() - num) + " files");
+			return true;
+		}
+	}
+
+	/**
+	 * Remove existing entries in the files database that are no longer valid. Stage 2 of a full cycle goes through
+	 * every file and stamps the entries it confirms with the cycle's generation, so anything with an older
+	 * generation can be dropped in one statement. Rescanning every entry against the content system is only done if
+	 * configured to, or if the cycle started before entries had generations.
 	 * @return true if stopped by interrupt, false otherwise
 	 * @throws JobExecutionException
 	 */
-	private boolean stageUpdateIndex(IndexGenerator indexGen) throws JobExecutionException
+	private boolean stageUpdateIndex(SavedConfiguration config, ArrayList<String> attributes) throws JobExecutionException
 	{
 		logger.info("Starting Stage: Update Index");
-		ScanProcessor processor = new FilesTableUpdateScanProcessor(indexGen, st);
+		if (CyclePlan.canSweep(config.isVerifyExisting(), st.getGeneration()))
+		{
+			try
+			{
+				int swept = new FilesTable().sweep(st.getGeneration());
+				logger.info("Swept " + swept + " stale entries");
+			} catch (InaccessibleDbException e)
+			{
+				logger.error("Could not sweep stale entries. Stop index job", e);
+				throw new JobExecutionException(e);
+			}
+			logger.info("Ended Stage: Update Index");
+			return false;
+		}
+		int validators = config.getUpdateValidators();
+		ScanProcessor processor;
+		if (validators > 1)
+		{ // check files on a pool of threads while the scan keeps reading
+			logger.debug("Using " + validators + " validators");
+			processor = new PipelinedUpdateScanProcessor(attributes, courseLookups, st, validators);
+		}
+		else
+		{
+			processor = new FilesTableUpdateScanProcessor(new IndexGenerator(attributes, courseLookups, st.getGeneration()), st);
+		}
 		// set the column names for the data that the processor wants
 		List<String> dataKeys = new ArrayList<>();
 		dataKeys.add("filepath");
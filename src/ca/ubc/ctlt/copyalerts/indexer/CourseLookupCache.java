@@ -0,0 +1,154 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import blackboard.data.course.CourseMembership;
+import blackboard.persist.Id;
+import blackboard.persist.PersistenceException;
+import blackboard.persist.course.CourseMembershipDbLoader;
+import ca.ubc.ctlt.copyalerts.db.CacheSupport;
+import ca.ubc.ctlt.copyalerts.db.CourseCache;
+import ca.ubc.ctlt.copyalerts.db.CourseCache.CourseInfo;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Remembers the course and recipient lookups done while indexing. Every file in a course has an ACE
+ * for the course's instructor role, so without this, we'd be loading the same course and the same
+ * memberships again for every single file in the course.
+ *
+ * Recipients are the course members with any of the configured membership roles, e.g.: instructors, TAs and
+ * course builders. Which files a course's recipients get alerts for is decided separately, by the course roles on
+ * each file, see PrincipalParser.
+ *
+ * Recipients are loaded once per course per run, with one loadByCourseIdAndRole() query for each configured role,
+ * so a run makes courses x roles membership queries. The membership loader can only filter on one role at a time.
+ * A single query would mean either loadByCourseId(), which also loads every student in the course, or querying
+ * Blackboard's membership tables directly, which we don't do for Blackboard data anywhere else. Only a few roles
+ * are configured in practice, and each of their queries returns a handful of rows, so that's the cheaper choice.
+ *
+ * Courses come from the process wide CourseCache. Recipients are only remembered for a single indexing run,
+ * a new run should start with a new cache so that we pick up enrolment and role changes made between runs.
+ */
+public class CourseLookupCache
+{
+	private final static Logger logger = LoggerFactory.getLogger(CourseLookupCache.class);
+
+	// upper limit on how many courses we remember recipients for, least recently used ones are dropped first
+	public final static int MAX_COURSES = 10000;
+	// membership role that gets alerts if nothing else is configured
+	public final static String DEFAULT_ROLE = "UBC_Instructor";
+
+	private CourseCache courses = CourseCache.getInstance();
+	private Cache<Id, Set<Id>> recipients = CacheBuilder.newBuilder()
+			.maximumSize(MAX_COURSES)
+			.recordStats()
+			.build();
+	// membership roles that get alerts
+	private Set<CourseMembership.Role> roles = new LinkedHashSet<>();
+
+	/**
+	 * @param roleIds identifiers of the course membership roles that get alerts, e.g.: UBC_Instructor
+	 */
+	public CourseLookupCache(Collection<String> roleIds)
+	{
+		for (String roleId : roleIds)
+		{
+			CourseMembership.Role role = CourseMembership.Role.fromIdentifier(roleId);
+			if (role == null)
+			{
+				logger.warn("Unknown course role " + roleId + ", ignoring");
+				continue;
+			}
+			roles.add(role);
+		}
+		if (roles.isEmpty())
+		{ // for testing on local dev instance
+			roles.add(CourseMembership.Role.INSTRUCTOR);
+		}
+		logger.debug("Alert recipient roles: " + roles);
+	}
+
+	/**
+	 * Get the course with the given course id (e.g.: CL.UBC.MATH.101.201.2012W2.13204).
+	 * @param courseName course id
+	 * @return course info, null if the course doesn't exist
+	 * @throws PersistenceException
+	 */
+	public CourseInfo getCourse(String courseName) throws PersistenceException
+	{
+		return courses.getCourse(courseName);
+	}
+
+	/**
+	 * Get the user ids of everyone in the course who should get alerts, loading them if we haven't already.
+	 * @param course course info
+	 * @return set of user ids
+	 * @throws PersistenceException
+	 */
+	public Set<Id> getRecipients(final CourseInfo course) throws PersistenceException
+	{
+		return CacheSupport.get(recipients, course.getId(), new Callable<Set<Id>>()
+		{
+			@Override
+			public Set<Id> call() throws PersistenceException
+			{
+				return Collections.unmodifiableSet(loadRecipients(course.getId()));
+			}
+		});
+	}
+
+	/**
+	 * @return how many membership queries the cache saved us
+	 */
+	public long getSavedRoundTrips()
+	{
+		return recipients.stats().hitCount();
+	}
+
+	/**
+	 * @return hit, miss and eviction numbers for the recipient lookups, for display
+	 */
+	public Map<String, Object> getStats()
+	{
+		return CacheSupport.getStats(recipients);
+	}
+
+	public void logStats()
+	{
+		CacheStats stats = recipients.stats();
+		logger.info("Course lookup cache - recipients: " + stats.hitCount() + " hits, " + stats.missCount() +
+				" misses, " + stats.evictionCount() + " evictions; courses: " + courses.getStats());
+	}
+
+	/**
+	 * Get the user ids of the members with any of the recipient roles, one query per role, see the class comment.
+	 * @param courseId course id
+	 * @return set of user ids
+	 * @throws PersistenceException
+	 */
+	private Set<Id> loadRecipients(Id courseId) throws PersistenceException
+	{
+		Set<Id> names = new HashSet<>();
+		CourseMembershipDbLoader loader = CourseMembershipDbLoader.Default.getInstance();
+		for (CourseMembership.Role role : roles)
+		{
+			List<CourseMembership> memberships = loader.loadByCourseIdAndRole(courseId, role);
+			for (CourseMembership membership : memberships)
+			{
+				names.add(membership.getUserId());
+			}
+		}
+		return names;
+	}
+}
@@ -0,0 +1,88 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/**
+ * The decisions that tie an indexing cycle together: whether a run starts a new cycle or resumes one, whether the
+ * cycle is a full sweep or an incremental run, and how entries that are no longer valid get removed at the end.
+ * Kept apart from CSIndexJob so that they can be checked without the scheduler or the database.
+ *
+ * A full cycle gets a new generation. Stage 2 stamps every entry it confirms with it, and stage 3 sweeps whatever
+ * is left with an older generation, see FilesTable.sweep().
+ */
+class CyclePlan
+{
+	final static long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private CyclePlan()
+	{
+	}
+
+	/**
+	 * A run that was stopped part way through queue generation, e.g.: by the time limit, picks up where it left
+	 * off, so it's still in the same cycle and has to keep the cycle's run mode and generation.
+	 * @param lastQueueFileid where the last queue generation stopped, 0 if it finished
+	 * @param queuePartitions partitions of a partitioned queue generation that isn't finished
+	 * @return true if the run starts a new cycle
+	 */
+	static boolean isNewCycle(long lastQueueFileid, Collection<?> queuePartitions)
+	{
+		return lastQueueFileid == 0 && queuePartitions.isEmpty();
+	}
+
+	/**
+	 * Incremental runs need a watermark from a previous queue generation and a recent enough full sweep.
+	 * @param incremental whether incremental runs are turned on
+	 * @param watermark highest file id queued by the last finished queue generation, 0 if there wasn't one
+	 * @param lastFullSweep when the last full sweep finished, null if there hasn't been one
+	 * @param started when this run started
+	 * @param fullSweepDays most days allowed between full sweeps
+	 * @return Status.RUN_MODE_FULL or Status.RUN_MODE_INCREMENTAL
+	 */
+	static String chooseRunMode(boolean incremental, long watermark, Timestamp lastFullSweep, Timestamp started,
+								int fullSweepDays)
+	{
+		if (incremental && watermark > 0 && lastFullSweep != null &&
+				started.getTime() - lastFullSweep.getTime() < fullSweepDays * DAY_MILLIS)
+		{
+			return Status.RUN_MODE_INCREMENTAL;
+		}
+		return Status.RUN_MODE_FULL;
+	}
+
+	/**
+	 * Only full cycles go through every file, so only they can tell which entries are stale.
+	 * @param runMode the new cycle's run mode
+	 * @return true if the cycle needs a new generation
+	 */
+	static boolean needsNewGeneration(String runMode)
+	{
+		return Status.RUN_MODE_FULL.equals(runMode);
+	}
+
+	/**
+	 * Incremental runs only look at new files, checking existing entries is left to the next full sweep.
+	 * @param runMode the cycle's run mode
+	 * @return the stage that comes after adding new files
+	 */
+	static String stageAfterNewFiles(String runMode)
+	{
+		return Status.RUN_MODE_INCREMENTAL.equals(runMode) ? Status.STATUS_STAGE_QUEUE : Status.STATUS_STAGE_UPDATE;
+	}
+
+	/**
+	 * Entries can only be swept if the cycle stamped the ones it confirmed. A cycle that started before entries had
+	 * generations (generation 0) has to check every entry against the content system instead, as does anyone who
+	 * has asked for existing entries to be verified.
+	 * @param verifyExisting whether existing entries should be checked against the content system
+	 * @param generation the cycle's generation
+	 * @return true if stale entries can be removed with a sweep
+	 */
+	static boolean canSweep(boolean verifyExisting, long generation)
+	{
+		return !verifyExisting && generation > 0;
+	}
+}
@@ -1,13 +1,12 @@
 package ca.ubc.ctlt.copyalerts.indexer;
 
 import blackboard.cms.filesystem.*;
-import blackboard.data.course.Course;
-import blackboard.data.course.CourseMembership;
 import blackboard.persist.Id;
 import blackboard.persist.PersistenceException;
-import blackboard.persist.course.CourseDbLoader;
-import blackboard.persist.course.CourseMembershipDbLoader;
+import ca.ubc.ctlt.copyalerts.db.CourseCache.CourseInfo;
 import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.indexer.PrincipalParser.Principal;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,13 +16,22 @@ public class IndexGenerator
 {
 	private final static Logger logger = LoggerFactory.getLogger(IndexGenerator.class);
 	// class to retrieve file ownership information and prep it for output into sql database
-	private ArrayList<String> attributes;
+	private TagChecker tags;
 	private FilesTable ft = new FilesTable();
 	private CSContext ctx = CSContext.getContext();
+	// course and instructor lookups, shared by all generators in an indexing run
+	private CourseLookupCache courseLookups;
+	// time spent in the content system api vs the database
+	private IndexMetrics metrics = IndexMetrics.getInstance();
+	private PrincipalParser principals = PrincipalParser.getInstance();
+	// generation that added and confirmed entries are stamped with, see FilesTable.sweep()
+	private long generation;
 
-	public IndexGenerator(ArrayList<String> attributes)
+	public IndexGenerator(ArrayList<String> attributes, CourseLookupCache courseLookups, long generation)
 	{
-		this.attributes = attributes;
+		this.tags = new TagChecker(attributes);
+		this.courseLookups = courseLookups;
+		this.generation = generation;
 		ctx.isSuperUser(true);
 	}
 
@@ -43,7 +51,9 @@ public class IndexGenerator
 				continue;
 			}
 			// the file has not been copyright tagged, store it in the database
+			long cmsStart = System.nanoTime();
 			CSAccessControlEntry[] accesses = file.getAccessControlEntries();
+			metrics.addCmsTime(System.nanoTime() - cmsStart);
 			// Use a set to ensure that we end up with no duplicate users or a user might
 			// end up with multiple entries for a single file. This might happen if a file
 			// is shared by two or more courses taught by the same instructor, and so we
@@ -56,56 +66,47 @@ public class IndexGenerator
 				{ // skip if can't write
 					continue;
 				}
-				String pid = e.getPrincipalID();
-				// Some sample principal IDs:
-				// This is for course instructors, I'm assuming that CR stands for Course Role
-				// G:CR:CL.UBC.MATH.101.201.2012W2.13204:INSTRUCTOR
-				// This is for system admins, I'm assuming that SR stands for System Role
-				// G:SR:SYSTEM_ADMIN
-				// This is for a single user assigned permission to the file
-				// BB:U:_81_1
-
-				// Since we only want Instructors and ISS role
-				if (pid.startsWith("G:CR"))
+				// We only want course roles that are configured to get alerts, e.g.: instructors
+				Principal principal = principals.parse(e.getPrincipalID());
+				if (!principal.isRecipient())
+				{
+					continue;
+				}
+				long dbStart = System.nanoTime();
+				try
 				{
-					String[] pidArr = pid.split(":");
-					String courseName = pidArr[2];
-					Course course = CourseDbLoader.Default.getInstance().loadByCourseId(courseName);
+					CourseInfo course = courseLookups.getCourse(principal.getCourseName());
 					// we only add files that are in active course and the course is not ended yet
-					Calendar endDate = course.getEndDate();
-					if ((endDate != null && endDate.before(Calendar.getInstance())) || !course.getIsAvailable()) {
+					if (course == null || !course.isActive()) {
 						continue;
 					}
-					// We only want Instructor users for now
-					if (pid.matches(".+(?i)instructor.*"))
-					{
-						names.addAll(getInstructors(course.getId()));
-					}
+					names.addAll(courseLookups.getRecipients(course));
+				} finally
+				{
+					metrics.addDbTime(System.nanoTime() - dbStart);
 				}
 			}
 			if (!names.isEmpty()) {
 				filesAndUsers.put(file, names);
 			}
 		}
-		ft.add(filesAndUsers);
+		long dbStart = System.nanoTime();
+		ft.add(filesAndUsers, generation);
+		metrics.addDbTime(System.nanoTime() - dbStart);
 
 		return filesAndUsers.size();
 	}
 
 	public boolean fileIsTagged(CSFile file)
 	{
-		CSEntryMetadata meta = file.getCSEntryMetadata();
-		for (String attr : attributes)
+		long start = System.nanoTime();
+		try
 		{
-			String res = meta.getStandardProperty(attr);
-			if (!res.isEmpty())
-			{ // there's a value for this attribute ID, so we can assume it's been copyright tagged
-				// there might be a concern if we don't check whether a user has actually selected a copyright
-				// though the metadata building block UI prevents that scenario so it should be ok?
-				return true;
-			}
+			return tags.isTagged(file);
+		} finally
+		{
+			metrics.addCmsTime(System.nanoTime() - start);
 		}
-		return false;
 	}
 
 	/**
@@ -116,7 +117,9 @@ public class IndexGenerator
 	 */
 	public CSFile getCSFileFromPath(String path)
 	{
+		long start = System.nanoTime();
 		CSEntry entry = ctx.findEntry(path);
+		metrics.addCmsTime(System.nanoTime() - start);
 		if (entry == null)
 		{
 			logger.info("Non-existent file: " + path);
@@ -130,38 +133,4 @@ public class IndexGenerator
 		return (CSFile) entry;
 	}
 
-	/**
-	 * Get a list of userids who are instructors in the given course.
-	 * @return list of user ids
-	 * @throws PersistenceException
-	 */
-	private ArrayList<Id> getInstructors(Id courseId) throws PersistenceException
-	{
-		// TODO allow configurable role IDs
-		CourseMembership.Role role = CourseMembership.Role.fromIdentifier("UBC_Instructor");
-		if (role == null)
-		{ // for testing on local dev instance
-			role = CourseMembership.Role.INSTRUCTOR;
-		}
-		return getUserWithRoleInCourse(courseId, role);
-	}
-
-	/**
-	 * Get all user in the given course with the given role. Return as an array of Ids
-	 * @param courseId course id
-	 * @param role course membership role
-	 * @return list of user ids
-	 * @throws PersistenceException
-	 */
-	private ArrayList<Id> getUserWithRoleInCourse(Id courseId, CourseMembership.Role role) throws PersistenceException
-	{
-		ArrayList<Id> names = new ArrayList<>();
-		List<CourseMembership> memberships = CourseMembershipDbLoader.Default.getInstance().loadByCourseIdAndRole(courseId, role);
-		for (CourseMembership membership : memberships)
-		{
-			names.add(membership.getUserId());
-		}
-		return names;
-	}
-
 }
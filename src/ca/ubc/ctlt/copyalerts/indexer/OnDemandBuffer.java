@@ -0,0 +1,260 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import blackboard.persist.PersistenceException;
+import ca.ubc.ctlt.copyalerts.configuration.SavedConfiguration;
+import ca.ubc.ctlt.copyalerts.db.FilesTable;
+import ca.ubc.ctlt.copyalerts.db.ProgressCounters;
+import ca.ubc.ctlt.copyalerts.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the files sent to the on demand indexer, e.g.: when someone tags files with the metadata building block,
+ * so that the request doesn't have to wait on the content system and the database. A background thread takes the
+ * files off in batches, checks which are now tagged and removes those with one delete per batch.
+ *
+ * Files sent more than once before they're processed are only checked once. Bulk tagging sends a lot of requests in
+ * a short time, so the worker waits a little after the first one comes in to let the rest pile up. If the buffer is
+ * full, files are dropped, the next indexing run will catch them anyway.
+ */
+public class OnDemandBuffer
+{
+	private final static Logger logger = LoggerFactory.getLogger(OnDemandBuffer.class);
+
+	// most files we'll hold on to
+	public final static int MAX_PENDING = 50000;
+	// how long to let files pile up before processing them
+	public final static long COALESCE_MILLIS = 500;
+	// how long shutdown waits for the worker to finish what's left
+	private final static long SHUTDOWN_WAIT_MILLIS = 10000;
+
+	private static OnDemandBuffer instance = null;
+
+	// files waiting to be processed, guarded by this
+	private final Set<String> pending = new LinkedHashSet<>();
+	private Thread worker = null;
+	private boolean stopping = false;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong removed = new AtomicLong();
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+	private OnDemandBuffer()
+	{
+	}
+
+	public static synchronized OnDemandBuffer getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new OnDemandBuffer();
+		}
+		return instance;
+	}
+
+	/**
+	 * Queue up files to be checked.
+	 * @param paths file paths
+	 * @return number of files accepted, files that are already waiting count as accepted
+	 */
+	public synchronized int offer(Collection<String> paths)
+	{
+		int accepted = 0;
+		int full = 0;
+		for (String path : paths)
+		{
+			if (path.contains("xid-")) continue; // make sure to skip special xid files
+			received.incrementAndGet();
+			if (pending.contains(path))
+			{
+				coalesced.incrementAndGet();
+				accepted++;
+			}
+			else if (pending.size() < MAX_PENDING)
+			{
+				pending.add(path);
+				accepted++;
+			}
+			else
+			{
+				full++;
+			}
+		}
+		if (full > 0)
+		{
+			dropped.addAndGet(full);
+			logger.warn("On demand buffer is full, dropped " + full + " files");
+		}
+		start();
+		notifyAll();
+		return accepted;
+	}
+
+	/**
+	 * Start the worker thread if it isn't running.
+	 */
+	public synchronized void start()
+	{
+		if (worker != null || stopping)
+		{
+			return;
+		}
+		worker = new Thread(new Worker(), "OnDemandBuffer-worker");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stop the worker thread, it gets a little time to finish the files that are waiting.
+	 */
+	public void shutdown()
+	{
+		Thread thread;
+		synchronized (this)
+		{
+			stopping = true;
+			thread = worker;
+			notifyAll();
+		}
+		if (thread == null)
+		{
+			return;
+		}
+		try
+		{
+			thread.join(SHUTDOWN_WAIT_MILLIS);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive())
+		{
+			logger.warn("On demand buffer didn't finish in time, " + getQueueDepth() + " files left unprocessed");
+			thread.interrupt();
+		}
+	}
+
+	public synchronized int getQueueDepth()
+	{
+		return pending.size();
+	}
+
+	public double getFlushAvgMillis()
+	{
+		return flushLatency.getAvgMillis();
+	}
+
+	/**
+	 * @return queue depth, counts and flush latency, for display
+	 */
+	public Map<String, Object> getStats()
+	{
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("queueDepth", getQueueDepth());
+		ret.put("received", received.get());
+		ret.put("coalesced", coalesced.get());
+		ret.put("dropped", dropped.get());
+		ret.put("processed", processed.get());
+		ret.put("removed", removed.get());
+		ret.put("flush", flushLatency.toMap());
+		return ret;
+	}
+
+	/**
+	 * Wait for files and take the next batch off.
+	 * @return the batch, empty if we're stopping and there's nothing left
+	 * @throws InterruptedException
+	 */
+	private synchronized List<String> take() throws InterruptedException
+	{
+		while (pending.isEmpty() && !stopping)
+		{
+			wait();
+		}
+		if (!stopping)
+		{ // give the rest of a burst a chance to come in
+			long deadline = System.currentTimeMillis() + COALESCE_MILLIS;
+			long remaining = COALESCE_MILLIS;
+			while (remaining > 0 && !stopping && pending.size() < CSIndexJob.BATCHSIZE)
+			{
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+		List<String> batch = new ArrayList<>();
+		Iterator<String> it = pending.iterator();
+		while (it.hasNext() && batch.size() < CSIndexJob.BATCHSIZE)
+		{
+			batch.add(it.next());
+			it.remove();
+		}
+		return batch;
+	}
+
+	/**
+	 * Check the batch and remove the files that have been tagged.
+	 */
+	private void flush(List<String> batch) throws PersistenceException
+	{
+		long start = System.nanoTime();
+		TagChecker tags = new TagChecker(SavedConfiguration.getInstance().getAttributes());
+		int deleted = new FilesTable().deleteFiles(tags.getTaggedFiles(batch));
+		long nanos = System.nanoTime() - start;
+		flushLatency.record(nanos);
+		processed.addAndGet(batch.size());
+		removed.addAndGet(deleted);
+		logger.debug("OnDemandIndexer - checked " + batch.size() + " files, removed " + deleted + " entries in " +
+				(nanos / 1000000) + " ms");
+	}
+
+	private class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				List<String> batch;
+				try
+				{
+					batch = take();
+				} catch (InterruptedException e)
+				{
+					break;
+				}
+				if (batch.isEmpty())
+				{ // stopping and nothing left to do
+					break;
+				}
+				try
+				{
+					flush(batch);
+				} catch (PersistenceException | RuntimeException e)
+				{ // the next indexing run will pick these up, not worth retrying
+					logger.error("OnDemandIndexer - unable to process " + batch.size() + " files", e);
+				}
+				if (getQueueDepth() == 0)
+				{ // caught up, write out the progress counter adjustments instead of waiting for the next ones
+					ProgressCounters.getInstance().flush();
+				}
+			}
+			synchronized (OnDemandBuffer.this)
+			{
+				worker = null;
+			}
+		}
+	}
+}
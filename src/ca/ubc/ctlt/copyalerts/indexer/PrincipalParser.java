@@ -0,0 +1,191 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses the principal IDs on content system access control entries. Every entry on every file goes through here,
+ * so this is done with plain string operations instead of regular expressions, and the result is cached for each
+ * distinct principal ID. There are far fewer distinct principals than entries, as the same course roles show up on
+ * every file in a course.
+ *
+ * Some sample principal IDs:
+ * G:CR:CL.UBC.MATH.101.201.2012W2.13204:INSTRUCTOR - a course role, I'm assuming that CR stands for Course Role
+ * G:SR:SYSTEM_ADMIN - a system role, I'm assuming that SR stands for System Role
+ * BB:U:_81_1 - a single user assigned permission to the file
+ */
+public class PrincipalParser
+{
+	public final static int MAX_PRINCIPALS = 50000;
+	// course roles that get alerts if nothing else is configured
+	public final static String DEFAULT_ROLES = "instructor";
+
+	private final static String COURSE_ROLE_PREFIX = "G:CR:";
+	private final static String SYSTEM_ROLE_PREFIX = "G:SR:";
+	private final static String USER_PREFIX = "BB:U:";
+
+	public enum Type
+	{
+		COURSE_ROLE, SYSTEM_ROLE, USER, OTHER
+	}
+
+	/**
+	 * What a principal ID refers to.
+	 */
+	public static class Principal
+	{
+		private final Type type;
+		private final String courseName;
+		private final String role;
+		private final boolean recipient;
+
+		private Principal(Type type, String courseName, String role, boolean recipient)
+		{
+			this.type = type;
+			this.courseName = courseName;
+			this.role = role;
+			this.recipient = recipient;
+		}
+
+		public Type getType()
+		{
+			return type;
+		}
+
+		/**
+		 * @return the course name for course roles, e.g.: CL.UBC.MATH.101.201.2012W2.13204, null otherwise
+		 */
+		public String getCourseName()
+		{
+			return courseName;
+		}
+
+		/**
+		 * @return the role for course and system roles, the user id for users
+		 */
+		public String getRole()
+		{
+			return role;
+		}
+
+		/**
+		 * @return true if this is a course role whose members should get alerts for the file
+		 */
+		public boolean isRecipient()
+		{
+			return recipient;
+		}
+	}
+
+	private static PrincipalParser instance = null;
+
+	// lower case, matched anywhere in the role so that e.g.: "instructor" also covers "INSTRUCTOR_B"
+	private volatile List<String> roles = Collections.singletonList(DEFAULT_ROLES);
+
+	private Cache<String, Principal> principals = CacheBuilder.newBuilder()
+			.maximumSize(MAX_PRINCIPALS)
+			.build();
+
+	private PrincipalParser()
+	{
+	}
+
+	public static synchronized PrincipalParser getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new PrincipalParser();
+		}
+		return instance;
+	}
+
+	/**
+	 * Set the course roles that get alerts, cached results are thrown out if they changed.
+	 * @param roles role identifiers, matched case insensitively anywhere in the role, e.g.: instructor
+	 */
+	public synchronized void setRoles(Collection<String> roles)
+	{
+		List<String> newRoles = new ArrayList<>();
+		for (String role : roles)
+		{
+			String trimmed = role.trim().toLowerCase(Locale.ROOT);
+			if (!trimmed.isEmpty())
+			{
+				newRoles.add(trimmed);
+			}
+		}
+		if (!newRoles.equals(this.roles))
+		{
+			this.roles = Collections.unmodifiableList(newRoles);
+			principals.invalidateAll();
+		}
+	}
+
+	public List<String> getRoles()
+	{
+		return roles;
+	}
+
+	/**
+	 * @param pid principal ID from an access control entry
+	 * @return what the principal ID refers to
+	 */
+	public Principal parse(String pid)
+	{
+		Principal ret = principals.getIfPresent(pid);
+		if (ret == null)
+		{ // parsing twice in a race is harmless, the results are the same
+			List<String> current = roles;
+			ret = doParse(pid, current);
+			if (current == roles)
+			{ // don't cache a result for roles that were changed while we were parsing
+				principals.put(pid, ret);
+			}
+		}
+		return ret;
+	}
+
+	private Principal doParse(String pid, List<String> roles)
+	{
+		if (pid.startsWith(COURSE_ROLE_PREFIX))
+		{
+			// the role is the last part, everything in between is the course name
+			int roleStart = pid.lastIndexOf(':');
+			if (roleStart < COURSE_ROLE_PREFIX.length())
+			{ // no role, e.g.: G:CR:CL.UBC.MATH.101.201.2012W2.13204
+				return new Principal(Type.COURSE_ROLE, pid.substring(COURSE_ROLE_PREFIX.length()), "", false);
+			}
+			String courseName = pid.substring(COURSE_ROLE_PREFIX.length(), roleStart);
+			String role = pid.substring(roleStart + 1);
+			return new Principal(Type.COURSE_ROLE, courseName, role, isRecipientRole(role, roles));
+		}
+		if (pid.startsWith(SYSTEM_ROLE_PREFIX))
+		{
+			return new Principal(Type.SYSTEM_ROLE, null, pid.substring(SYSTEM_ROLE_PREFIX.length()), false);
+		}
+		if (pid.startsWith(USER_PREFIX))
+		{
+			return new Principal(Type.USER, null, pid.substring(USER_PREFIX.length()), false);
+		}
+		return new Principal(Type.OTHER, null, pid, false);
+	}
+
+	private boolean isRecipientRole(String role, List<String> roles)
+	{
+		String lower = role.toLowerCase(Locale.ROOT);
+		for (String keyword : roles)
+		{
+			if (lower.contains(keyword))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,260 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import ca.ubc.ctlt.copyalerts.JsonIntermediate.Progress;
+import ca.ubc.ctlt.copyalerts.JsonIntermediate.ProgressEvent;
+import ca.ubc.ctlt.copyalerts.JsonIntermediate.ProgressStream;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
+import ca.ubc.ctlt.copyalerts.db.ProgressCounters;
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most recent progress updates from the indexing job running on this host, so that the system config
+ * page can wait on new updates instead of polling the database. Stage and status changes are published as they
+ * happen, throughput is published at most every THROUGHPUT_INTERVAL_MILLIS no matter how many rows go by, so the
+ * only database reads are the counter lookups for those, and they don't go up with the number of people watching.
+ *
+ * Only the host running the job has anything to publish, so clients are only told they're live while the job is
+ * running here, otherwise they should poll instead. Each waiting client holds on to a request thread, so only
+ * MAX_WAITERS clients get to wait at once, the rest are also told to poll.
+ */
+public class ProgressEvents
+{
+	private final static Logger logger = LoggerFactory.getLogger(ProgressEvents.class);
+
+	// number of events kept, clients that fall further behind than this just miss the older ones
+	public final static int CAPACITY = 200;
+	public final static long THROUGHPUT_INTERVAL_MILLIS = 2000;
+	// upper limit on how long a client can wait for new events
+	public final static long MAX_WAIT_MILLIS = 30000;
+	// most clients that can be waiting for events at once
+	public final static int MAX_WAITERS = 20;
+
+	private static ProgressEvents instance = null;
+
+	private final String instanceId = UUID.randomUUID().toString();
+
+	// Ring buffer, guarded by this. The event with sequence number n is at index n % CAPACITY.
+	private final ProgressEvent[] events = new ProgressEvent[CAPACITY];
+	private long seq = 0;
+
+	// Current stage, guarded by this.
+	private String status = "";
+	private String stage = "";
+	// number of clients waiting for events, guarded by this
+	private int waiters = 0;
+	private volatile long stageStartNanos = System.nanoTime();
+
+	// updated on every row, so kept out of the lock
+	private final AtomicLong stageRows = new AtomicLong();
+	private final AtomicLong lastThroughputNanos = new AtomicLong(System.nanoTime());
+	private volatile long lastThroughputRows = 0;
+
+	private ProgressEvents()
+	{
+	}
+
+	public static synchronized ProgressEvents getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new ProgressEvents();
+		}
+		return instance;
+	}
+
+	/**
+	 * The indexing job changed status, e.g.: started running or stopped.
+	 * @param status one of the Status.STATUS_* values
+	 */
+	public void statusChanged(String status)
+	{
+		ProgressEvent event;
+		synchronized (this)
+		{
+			this.status = status;
+			event = newEvent(ProgressEvent.TYPE_STATUS);
+		}
+		addCounts(event);
+		synchronized (this)
+		{
+			publish(event);
+		}
+	}
+
+	/**
+	 * The indexing job started a stage, throughput is counted from here.
+	 * @param stage one of the Status.STATUS_STAGE_* values
+	 */
+	public void stageStarted(String stage)
+	{
+		ProgressEvent event;
+		synchronized (this)
+		{
+			this.stage = stage;
+			stageStartNanos = System.nanoTime();
+			stageRows.set(0);
+			lastThroughputRows = 0;
+			lastThroughputNanos.set(stageStartNanos);
+			event = newEvent(ProgressEvent.TYPE_STAGE);
+		}
+		addCounts(event);
+		synchronized (this)
+		{
+			publish(event);
+		}
+	}
+
+	/**
+	 * Count rows processed in the current stage. Cheap enough to call for every row, a throughput event is only
+	 * published if it's been long enough since the last one.
+	 * @param num number of rows processed
+	 */
+	public void recordRows(long num)
+	{
+		stageRows.addAndGet(num);
+		long now = System.nanoTime();
+		long last = lastThroughputNanos.get();
+		if (now - last >= TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_INTERVAL_MILLIS) &&
+				lastThroughputNanos.compareAndSet(last, now))
+		{ // only the thread that won the compare and set publishes
+			publishThroughput(now, last);
+		}
+	}
+
+	/**
+	 * Wait for events after the given sequence number.
+	 * @param instance the instance the client got its sequence number from, empty if it doesn't have one yet
+	 * @param after sequence number of the last event the client has seen
+	 * @param waitMillis how long to wait for new events, capped at MAX_WAIT_MILLIS
+	 * @return events after the given sequence number, empty if none came in time. Not live if the job isn't running
+	 * on this host or too many clients are already waiting, either way without waiting.
+	 */
+	public synchronized ProgressStream await(String instance, long after, long waitMillis)
+	{
+		if (!instanceId.equals(instance) || after > seq)
+		{ // the client's sequence numbers came from before a restart
+			after = 0;
+		}
+		boolean live = isRunning() && waiters < MAX_WAITERS;
+		if (live)
+		{
+			waiters++;
+			try
+			{
+				long deadline = System.currentTimeMillis() + Math.min(Math.max(waitMillis, 0), MAX_WAIT_MILLIS);
+				long remaining = deadline - System.currentTimeMillis();
+				while (isRunning() && seq <= after && remaining > 0)
+				{
+					try
+					{
+						wait(remaining);
+					} catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						break;
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+			} finally
+			{
+				waiters--;
+			}
+			// the job might have stopped while we were waiting
+			live = isRunning();
+		}
+
+		ProgressStream ret = new ProgressStream();
+		ret.instance = instanceId;
+		ret.seq = seq;
+		ret.live = live;
+		for (long i = Math.max(after + 1, seq - CAPACITY + 1); i <= seq; i++)
+		{
+			ret.events.add(events[(int) (i % CAPACITY)]);
+		}
+		return ret;
+	}
+
+	private void publishThroughput(long now, long last)
+	{
+		long rows = stageRows.get();
+		double seconds = (now - last) / 1000000000.0;
+		ProgressEvent event;
+		synchronized (this)
+		{
+			event = newEvent(ProgressEvent.TYPE_THROUGHPUT);
+			event.rowsPerSecond = seconds > 0 ? (rows - lastThroughputRows) / seconds : 0;
+			lastThroughputRows = rows;
+		}
+		// read the counters outside the lock so clients waiting for events aren't held up
+		addCounts(event);
+		if (event.stage.equals(Status.STATUS_STAGE_NEWFILES) && event.queueCount >= 0)
+		{ // the queue is what's left to do in this stage, so we can estimate how long it'll take
+			double stageSeconds = (now - stageStartNanos) / 1000000000.0;
+			double stageRate = stageSeconds > 0 ? rows / stageSeconds : 0;
+			if (stageRate > 0)
+			{
+				event.etaSeconds = (long) (event.queueCount / stageRate);
+			}
+		}
+		synchronized (this)
+		{
+			publish(event);
+		}
+	}
+
+	/**
+	 * Must hold the lock.
+	 * @return true if the last status published on this host was running
+	 */
+	private boolean isRunning()
+	{
+		return status.equals(Status.STATUS_RUNNING);
+	}
+
+	/**
+	 * Must hold the lock.
+	 */
+	private ProgressEvent newEvent(String type)
+	{
+		ProgressEvent event = new ProgressEvent();
+		event.time = System.currentTimeMillis();
+		event.type = type;
+		event.status = status;
+		event.stage = stage;
+		event.stageRows = stageRows.get();
+		return event;
+	}
+
+	/**
+	 * Reads the database, so shouldn't be called while holding the lock.
+	 */
+	private void addCounts(ProgressEvent event)
+	{
+		try
+		{
+			Progress progress = ProgressCounters.getInstance().getProgress();
+			event.queueCount = progress.queueCount;
+			event.fileCount = progress.fileCount;
+		} catch (InaccessibleDbException e)
+		{ // leave the counts unknown, not worth failing the job over
+			logger.warn("Unable to read progress counters", e);
+		}
+	}
+
+	/**
+	 * Must hold the lock.
+	 */
+	private void publish(ProgressEvent event)
+	{
+		seq++;
+		event.seq = seq;
+		events[(int) (seq % CAPACITY)] = event;
+		notifyAll();
+	}
+}
@@ -0,0 +1,94 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import blackboard.cms.filesystem.CSContext;
+import blackboard.cms.filesystem.CSEntry;
+import blackboard.cms.filesystem.CSEntryMetadata;
+import blackboard.cms.filesystem.CSFile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks whether files have been copyright tagged, i.e.: have a value for any of the metadata template's
+ * attributes. The content system api only loads metadata one file at a time, so files are checked one by one.
+ */
+class TagChecker
+{
+	private List<String> attributes;
+
+	/**
+	 * @param attributes names of the metadata template's attributes
+	 */
+	TagChecker(List<String> attributes)
+	{
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @param file file to check
+	 * @return true if the file has a value for any of the attributes
+	 */
+	boolean isTagged(CSFile file)
+	{
+		if (attributes.isEmpty())
+		{ // no metadata template configured, nothing can be tagged, so don't bother loading the metadata
+			return false;
+		}
+		CSEntryMetadata meta = file.getCSEntryMetadata();
+		for (String attr : attributes)
+		{
+			String res = meta.getStandardProperty(attr);
+			if (!res.isEmpty())
+			{ // there's a value for this attribute ID, so we can assume it's been copyright tagged
+				// there might be a concern if we don't check whether a user has actually selected a copyright
+				// though the metadata building block UI prevents that scenario so it should be ok?
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find which of the paths are files that have been tagged, for checks made outside of the indexing job. Each
+	 * call gets its own content system context and commits it when done, or rolls it back if the check fails, so
+	 * a long lived caller like the on demand worker doesn't hang on to a context between calls.
+	 * @param paths file paths
+	 * @return paths of the tagged files, paths that don't exist or aren't files are left out
+	 */
+	List<String> getTaggedFiles(Collection<String> paths)
+	{
+		List<String> tagged = new ArrayList<>();
+		if (attributes.isEmpty())
+		{
+			return tagged;
+		}
+		CSContext ctx = CSContext.getContext();
+		boolean finished = false;
+		try
+		{
+			ctx.isSuperUser(true);
+			for (String path : paths)
+			{
+				CSEntry entry = ctx.findEntry(path);
+				if (entry instanceof CSFile && isTagged((CSFile) entry))
+				{
+					tagged.add(path);
+				}
+			}
+			finished = true;
+		} finally
+		{
+			// we only read, but the context has to be ended either way to release what it holds
+			if (finished)
+			{
+				ctx.commit();
+			}
+			else
+			{
+				ctx.rollback();
+			}
+		}
+		return tagged;
+	}
+}
@@ -0,0 +1,415 @@
+package ca.ubc.ctlt.copyalerts.metrics;
+
+import ca.ubc.ctlt.copyalerts.db.AlertSummaryCache;
+import ca.ubc.ctlt.copyalerts.db.CourseCache;
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
+import ca.ubc.ctlt.copyalerts.indexer.CourseLookupCache;
+import ca.ubc.ctlt.copyalerts.indexer.OnDemandBuffer;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers on where the indexing job spends its time: rows per second in each stage, how long the batch inserts and
+ * deletes take, how IndexGenerator's time splits between the content system and the database, and how well the
+ * caches are doing. Covers the current run, or the last one if nothing is running.
+ *
+ * Published over JMX as ca.ubc.ctlt.copyalerts:type=IndexMetrics and as json through the system config /metrics
+ * endpoint. Like ProgressEvents, only the host running the job has anything to report, except for the on demand
+ * indexer numbers, which are for whatever requests this host has handled.
+ */
+public class IndexMetrics implements IndexMetricsMXBean
+{
+	private final static Logger logger = LoggerFactory.getLogger(IndexMetrics.class);
+
+	public final static String OBJECT_NAME = "ca.ubc.ctlt.copyalerts:type=IndexMetrics";
+
+	// timed batch operations
+	public final static String OP_QUEUE_ADD = "queueTable.add";
+	public final static String OP_FILES_ADD = "filesTable.add";
+	public final static String OP_FILES_DELETE = "filesTable.deleteFilesByPk1";
+	// each batch sent by a bulk insert, for either table
+	public final static String OP_INSERT_FLUSH = "insertBulkQuery.flush";
+
+	private static IndexMetrics instance = null;
+
+	/**
+	 * Rows processed and time spent in a stage.
+	 */
+	private static class StageStats
+	{
+		private final AtomicLong rows = new AtomicLong();
+		// time spent in the stage, not counting the current stretch if it's running right now
+		private final AtomicLong finishedNanos = new AtomicLong();
+		// when the current stretch started, 0 if the stage isn't running
+		private volatile long startNanos = 0;
+
+		private void start(long now)
+		{
+			startNanos = now;
+		}
+
+		private void stop(long now)
+		{
+			if (startNanos != 0)
+			{
+				finishedNanos.addAndGet(now - startNanos);
+				startNanos = 0;
+			}
+		}
+
+		private double getSeconds()
+		{
+			long nanos = finishedNanos.get();
+			long start = startNanos;
+			if (start != 0)
+			{
+				nanos += System.nanoTime() - start;
+			}
+			return nanos / 1000000000.0;
+		}
+
+		private double getRowsPerSecond()
+		{
+			double seconds = getSeconds();
+			return seconds > 0 ? rows.get() / seconds : 0;
+		}
+
+		private void reset()
+		{
+			rows.set(0);
+			finishedNanos.set(0);
+			startNanos = 0;
+		}
+	}
+
+	private final Map<String, StageStats> stages;
+	private final Map<String, LatencyHistogram> operations;
+	private volatile String currentStage = "";
+	private volatile StageStats current = null;
+	private volatile long runStart = 0;
+
+	private final AtomicLong cmsNanos = new AtomicLong();
+	private final AtomicLong dbNanos = new AtomicLong();
+
+	// recipient lookups are only cached for a run, so we need the current run's cache
+	private volatile CourseLookupCache courseLookups = null;
+
+	private IndexMetrics()
+	{
+		Map<String, StageStats> stageMap = new LinkedHashMap<>();
+		stageMap.put(Status.STATUS_STAGE_QUEUE, new StageStats());
+		stageMap.put(Status.STATUS_STAGE_NEWFILES, new StageStats());
+		stageMap.put(Status.STATUS_STAGE_UPDATE, new StageStats());
+		stages = Collections.unmodifiableMap(stageMap);
+
+		Map<String, LatencyHistogram> opMap = new LinkedHashMap<>();
+		opMap.put(OP_QUEUE_ADD, new LatencyHistogram());
+		opMap.put(OP_FILES_ADD, new LatencyHistogram());
+		opMap.put(OP_FILES_DELETE, new LatencyHistogram());
+		opMap.put(OP_INSERT_FLUSH, new LatencyHistogram());
+		operations = Collections.unmodifiableMap(opMap);
+	}
+
+	public static synchronized IndexMetrics getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new IndexMetrics();
+		}
+		return instance;
+	}
+
+	/**
+	 * Publish the metrics over JMX. Failing to do so shouldn't stop the building block from working, so errors are
+	 * only logged.
+	 */
+	public static void register()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+			{
+				server.registerMBean(getInstance(), name);
+			}
+		} catch (JMException | SecurityException e)
+		{
+			logger.warn("Unable to register metrics with JMX", e);
+		}
+	}
+
+	public static void unregister()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+			{
+				server.unregisterMBean(name);
+			}
+		} catch (JMException | SecurityException e)
+		{
+			logger.warn("Unable to unregister metrics from JMX", e);
+		}
+	}
+
+	/**
+	 * Start over for a new run.
+	 * @param courseLookups the run's course lookup cache
+	 */
+	public synchronized void runStarted(CourseLookupCache courseLookups)
+	{
+		current = null;
+		currentStage = "";
+		reset();
+		this.courseLookups = courseLookups;
+		runStart = System.currentTimeMillis();
+	}
+
+	public synchronized void runEnded()
+	{
+		if (current != null)
+		{
+			current.stop(System.nanoTime());
+		}
+		current = null;
+		currentStage = "";
+	}
+
+	/**
+	 * @param stage one of the Status.STATUS_STAGE_* values
+	 */
+	public synchronized void stageStarted(String stage)
+	{
+		long now = System.nanoTime();
+		if (current != null)
+		{
+			current.stop(now);
+		}
+		current = stages.get(stage);
+		currentStage = stage;
+		if (current != null)
+		{
+			current.start(now);
+		}
+	}
+
+	/**
+	 * Count rows processed in the current stage, cheap enough to call for every row.
+	 * @param num number of rows
+	 */
+	public void recordRows(long num)
+	{
+		StageStats stats = current;
+		if (stats != null)
+		{
+			stats.rows.addAndGet(num);
+		}
+	}
+
+	/**
+	 * @param operation one of the OP_* values
+	 * @param nanos how long the batch took
+	 */
+	public void recordBatch(String operation, long nanos)
+	{
+		operations.get(operation).record(nanos);
+	}
+
+	public void addCmsTime(long nanos)
+	{
+		cmsNanos.addAndGet(nanos);
+	}
+
+	public void addDbTime(long nanos)
+	{
+		dbNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return all the metrics, for the json endpoint
+	 */
+	public Map<String, Object> getSnapshot()
+	{
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("runStart", runStart);
+		ret.put("currentStage", currentStage);
+
+		Map<String, Object> stageRet = new LinkedHashMap<>();
+		for (Entry<String, StageStats> entry : stages.entrySet())
+		{
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("rows", entry.getValue().rows.get());
+			stats.put("seconds", entry.getValue().getSeconds());
+			stats.put("rowsPerSecond", entry.getValue().getRowsPerSecond());
+			stageRet.put(entry.getKey(), stats);
+		}
+		ret.put("stages", stageRet);
+
+		Map<String, Object> opRet = new LinkedHashMap<>();
+		for (Entry<String, LatencyHistogram> entry : operations.entrySet())
+		{
+			opRet.put(entry.getKey(), entry.getValue().toMap());
+		}
+		ret.put("batches", opRet);
+
+		Map<String, Object> genRet = new LinkedHashMap<>();
+		long cms = getCmsMillis();
+		long db = getDbMillis();
+		genRet.put("cmsMillis", cms);
+		genRet.put("dbMillis", db);
+		genRet.put("cmsShare", cms + db == 0 ? 0 : cms / (double) (cms + db));
+		ret.put("indexGenerator", genRet);
+
+		Map<String, Object> cacheRet = new LinkedHashMap<>();
+		cacheRet.put("alertSummary", AlertSummaryCache.getInstance().getStats());
+		cacheRet.put("courses", CourseCache.getInstance().getStats());
+		CourseLookupCache lookups = courseLookups;
+		if (lookups != null)
+		{
+			cacheRet.put("recipients", lookups.getStats());
+		}
+		ret.put("caches", cacheRet);
+
+		ret.put("onDemand", OnDemandBuffer.getInstance().getStats());
+		return ret;
+	}
+
+	@Override
+	public String getCurrentStage()
+	{
+		return currentStage;
+	}
+
+	@Override
+	public Map<String, Long> getStageRows()
+	{
+		Map<String, Long> ret = new LinkedHashMap<>();
+		for (Entry<String, StageStats> entry : stages.entrySet())
+		{
+			ret.put(entry.getKey(), entry.getValue().rows.get());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Double> getStageRowsPerSecond()
+	{
+		Map<String, Double> ret = new LinkedHashMap<>();
+		for (Entry<String, StageStats> entry : stages.entrySet())
+		{
+			ret.put(entry.getKey(), entry.getValue().getRowsPerSecond());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Long> getBatchCounts()
+	{
+		Map<String, Long> ret = new LinkedHashMap<>();
+		for (Entry<String, LatencyHistogram> entry : operations.entrySet())
+		{
+			ret.put(entry.getKey(), entry.getValue().getCount());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Double> getBatchAvgMillis()
+	{
+		Map<String, Double> ret = new LinkedHashMap<>();
+		for (Entry<String, LatencyHistogram> entry : operations.entrySet())
+		{
+			ret.put(entry.getKey(), entry.getValue().getAvgMillis());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Double> getBatchMaxMillis()
+	{
+		Map<String, Double> ret = new LinkedHashMap<>();
+		for (Entry<String, LatencyHistogram> entry : operations.entrySet())
+		{
+			ret.put(entry.getKey(), entry.getValue().getMaxMillis());
+		}
+		return ret;
+	}
+
+	@Override
+	public long getCmsMillis()
+	{
+		return cmsNanos.get() / 1000000;
+	}
+
+	@Override
+	public long getDbMillis()
+	{
+		return dbNanos.get() / 1000000;
+	}
+
+	@Override
+	public Map<String, Double> getCacheHitRates()
+	{
+		Map<String, Double> ret = new LinkedHashMap<>();
+		ret.put("alertSummary", (Double) AlertSummaryCache.getInstance().getStats().get("hitRate"));
+		ret.put("courses", (Double) CourseCache.getInstance().getStats().get("hitRate"));
+		CourseLookupCache lookups = courseLookups;
+		if (lookups != null)
+		{
+			ret.put("recipients", (Double) lookups.getStats().get("hitRate"));
+		}
+		return ret;
+	}
+
+	@Override
+	public int getOnDemandQueueDepth()
+	{
+		return OnDemandBuffer.getInstance().getQueueDepth();
+	}
+
+	@Override
+	public double getOnDemandFlushAvgMillis()
+	{
+		return OnDemandBuffer.getInstance().getFlushAvgMillis();
+	}
+
+	@Override
+	public String getJson()
+	{
+		Gson gson = new Gson();
+		return gson.toJson(getSnapshot());
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		for (StageStats stats : stages.values())
+		{
+			stats.reset();
+		}
+		for (LatencyHistogram histogram : operations.values())
+		{
+			histogram.reset();
+		}
+		cmsNanos.set(0);
+		dbNanos.set(0);
+		if (current != null)
+		{ // keep timing the stage that's running
+			current.start(System.nanoTime());
+		}
+	}
+}
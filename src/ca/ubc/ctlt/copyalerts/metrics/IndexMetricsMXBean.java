@@ -0,0 +1,53 @@
+package ca.ubc.ctlt.copyalerts.metrics;
+
+import java.util.Map;
+
+/**
+ * What IndexMetrics exposes over JMX.
+ */
+public interface IndexMetricsMXBean
+{
+	String getCurrentStage();
+
+	/**
+	 * @return rows processed in each stage of the current or last run
+	 */
+	Map<String, Long> getStageRows();
+
+	Map<String, Double> getStageRowsPerSecond();
+
+	/**
+	 * @return number of batches recorded for each timed operation
+	 */
+	Map<String, Long> getBatchCounts();
+
+	Map<String, Double> getBatchAvgMillis();
+
+	Map<String, Double> getBatchMaxMillis();
+
+	/**
+	 * @return time IndexGenerator spent in the content system api
+	 */
+	long getCmsMillis();
+
+	/**
+	 * @return time IndexGenerator spent on database lookups and inserts
+	 */
+	long getDbMillis();
+
+	Map<String, Double> getCacheHitRates();
+
+	/**
+	 * @return number of files waiting for the on demand indexer
+	 */
+	int getOnDemandQueueDepth();
+
+	double getOnDemandFlushAvgMillis();
+
+	/**
+	 * @return everything, including histogram buckets, as json
+	 */
+	String getJson();
+
+	void reset();
+}
@@ -0,0 +1,86 @@
+package ca.ubc.ctlt.copyalerts.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long an operation took in fixed millisecond buckets. Recording is lock free, so it's safe to call
+ * from the worker threads without slowing them down.
+ */
+public class LatencyHistogram
+{
+	// upper bound of each bucket in milliseconds, anything slower goes into an extra overflow bucket
+	public final static long[] BUCKETS_MILLIS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_MILLIS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos)
+	{
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while (bucket < BUCKETS_MILLIS.length && millis > BUCKETS_MILLIS[bucket])
+		{
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+		{
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public double getAvgMillis()
+	{
+		long num = count.get();
+		return num == 0 ? 0 : totalNanos.get() / (double) num / 1000000.0;
+	}
+
+	public double getMaxMillis()
+	{
+		return maxNanos.get() / 1000000.0;
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < counts.length(); i++)
+		{
+			counts.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * @return count, average and max, plus the count in each bucket keyed by upper bound, e.g.: "<=50ms"
+	 */
+	public Map<String, Object> toMap()
+	{
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("count", getCount());
+		ret.put("avgMillis", getAvgMillis());
+		ret.put("maxMillis", getMaxMillis());
+		Map<String, Long> buckets = new LinkedHashMap<>();
+		for (int i = 0; i < BUCKETS_MILLIS.length; i++)
+		{
+			buckets.put("<=" + BUCKETS_MILLIS[i] + "ms", counts.get(i));
+		}
+		buckets.put(">" + BUCKETS_MILLIS[BUCKETS_MILLIS.length - 1] + "ms", counts.get(BUCKETS_MILLIS.length));
+		ret.put("buckets", buckets);
+		return ret;
+	}
+}
@@ -3,6 +3,10 @@ package ca.ubc.ctlt.copyalerts.scheduler;
 import ca.ubc.ctlt.copyalerts.configuration.HostResolver;
 import ca.ubc.ctlt.copyalerts.configuration.SavedConfiguration;
 import ca.ubc.ctlt.copyalerts.db.HostsTable;
+import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
+import ca.ubc.ctlt.copyalerts.db.ProgressCounters;
+import ca.ubc.ctlt.copyalerts.db.StatusTable;
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -21,7 +25,11 @@ public class ConfigUpdateJob implements Job
 	{
 		try
 		{
-			SavedConfiguration.getInstance().load();
+			SavedConfiguration config = SavedConfiguration.getInstance();
+			config.load();
+			// a template id change is picked up by load(), but edits to the template itself can only be found by
+			// loading it again, once an hour is often enough
+			config.invalidateAttributes();
 			SchedulerManager.getInstance().updateScheduler();
 			// we also need to check if this host is being added to the host table. If not, we
 			// need to add it
@@ -30,6 +38,14 @@ public class ConfigUpdateJob implements Job
 			if (!hostTable.hasHost(hostname)) {
 				hostTable.addHost(hostname);
 			}
+			// write out whatever progress counter adjustments this host is still holding on to
+			ProgressCounters.getInstance().flush();
+			// fix any drift in the progress counters, only needs to be done by one host. Not while the indexing job is
+			// running though, recounting while it's writing to both tables would just bring in new drift, and the
+			// job reconciles when it starts and ends anyway.
+			if (hostTable.isLeader(hostname) && !Status.STATUS_RUNNING.equals(new StatusTable().getStatus())) {
+				reconcileCounters();
+			}
 		} catch (SchedulerException e)
 		{
 			logger.error("Unable to update scheduler, quartz didn't like it.", e);
@@ -40,4 +56,18 @@ public class ConfigUpdateJob implements Job
 
 	}
 
+	/**
+	 * Correct any drift in the progress counters, a failure here shouldn't stop the rest of the config update.
+	 */
+	private void reconcileCounters()
+	{
+		try
+		{
+			ProgressCounters.getInstance().reconcile();
+		} catch (InaccessibleDbException e)
+		{
+			logger.error("Unable to reconcile progress counters.", e);
+		}
+	}
+
 }
@@ -9,6 +9,8 @@ import blackboard.platform.vxi.service.VirtualSystemException;
 import ca.ubc.ctlt.copyalerts.configuration.HostResolver;
 import ca.ubc.ctlt.copyalerts.db.HostsTable;
 import ca.ubc.ctlt.copyalerts.db.InaccessibleDbException;
+import ca.ubc.ctlt.copyalerts.indexer.OnDemandBuffer;
+import ca.ubc.ctlt.copyalerts.metrics.IndexMetrics;
 
 public class SchedulerStarter extends HttpServlet
 {
@@ -42,6 +44,9 @@ public class SchedulerStarter extends HttpServlet
 		{
 			throw new ServletException(e);
 		}
+
+		IndexMetrics.register();
+		OnDemandBuffer.getInstance().start();
 	}
 
 	/* (non-Javadoc)
@@ -51,6 +56,9 @@ public class SchedulerStarter extends HttpServlet
 	public void destroy()
 	{
 		SchedulerManager.getInstance().stop();
+		// finish whatever the on demand indexer has left before we go
+		OnDemandBuffer.getInstance().shutdown();
+		IndexMetrics.unregister();
 	}
 	
 }
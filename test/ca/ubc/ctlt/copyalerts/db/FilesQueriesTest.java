@@ -0,0 +1,161 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the SQL behind the files table's generation stamps and sweeps against an in memory H2 database, in both
+ * PostgreSQL and Oracle mode. Entries that would be added by FilesTable.add() are inserted directly with the
+ * generation, picking the run mode and generation is covered by CyclePlanTest.
+ */
+@RunWith(Parameterized.class)
+public class FilesQueriesTest
+{
+	private final static String TABLE = "ubc_ctlt_ca_files";
+
+	private String dbName;
+	private Connection conn;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> databases()
+	{
+		return Arrays.asList(new Object[][] { { "PostgreSQL" }, { "Oracle" } });
+	}
+
+	public FilesQueriesTest(String dbName)
+	{
+		this.dbName = dbName;
+	}
+
+	@Before
+	public void setUp() throws SQLException
+	{
+		conn = DriverManager.getConnection("jdbc:h2:mem:files;MODE=" + dbName);
+		conn.createStatement().execute("CREATE TABLE " + TABLE + " (pk1 BIGINT PRIMARY KEY, " +
+				"generation BIGINT DEFAULT 0 NOT NULL)");
+	}
+
+	@After
+	public void tearDown() throws SQLException
+	{
+		conn.createStatement().execute("DROP TABLE " + TABLE);
+		conn.close();
+	}
+
+	@Test
+	public void sweepDropsEntriesTheCycleDidntConfirm() throws SQLException
+	{
+		// entries from before generations were added
+		insert(1, 0);
+		insert(2, 0);
+		insert(3, 0);
+		long generation = 1;
+		FilesQueries.stampGeneration(conn, TABLE, Arrays.asList(1L, 3L), generation);
+		insert(4, generation);
+
+		assertEquals(1, sweep(generation));
+		assertEquals(Arrays.asList(1L, 3L, 4L), remaining());
+	}
+
+	@Test
+	public void resumedCycleKeepsEarlierStamps() throws SQLException
+	{
+		insert(1, 1);
+		insert(2, 1);
+		insert(3, 1);
+		long generation = 2;
+		FilesQueries.stampGeneration(conn, TABLE, Arrays.asList(1L), generation);
+		// interrupted here, the resumed run carries on with the same generation
+		FilesQueries.stampGeneration(conn, TABLE, Arrays.asList(2L), generation);
+
+		assertEquals(1, sweep(generation));
+		assertEquals(Arrays.asList(1L, 2L), remaining());
+	}
+
+	@Test
+	public void sweepingAgainRemovesNothing() throws SQLException
+	{
+		insert(1, 3);
+		insert(2, 2);
+		assertEquals(1, sweep(3));
+		assertEquals(0, sweep(3));
+		assertEquals(Arrays.asList(1L), remaining());
+	}
+
+	@Test
+	public void stampsMoreEntriesThanFitInOneInList() throws SQLException
+	{
+		int num = FilesQueries.MAX_IN_LIST * 2 + 500;
+		List<Long> pk1s = new ArrayList<>();
+		PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + TABLE + " (pk1, generation) VALUES (?, 0)");
+		for (long i = 1; i <= num; i++)
+		{
+			stmt.setLong(1, i);
+			stmt.addBatch();
+			pk1s.add(i);
+		}
+		stmt.executeBatch();
+		stmt.close();
+		insert(num + 1, 0);
+
+		FilesQueries.stampGeneration(conn, TABLE, pk1s, 5);
+		assertEquals(1, sweep(5));
+		assertEquals(num, remaining().size());
+	}
+
+	@Test
+	public void stampingNothingIsFine() throws SQLException
+	{
+		insert(1, 0);
+		FilesQueries.stampGeneration(conn, TABLE, Collections.<Long>emptyList(), 1);
+		assertEquals(1, sweep(1));
+	}
+
+	private void insert(long pk1, long generation) throws SQLException
+	{
+		Statement stmt = conn.createStatement();
+		stmt.execute("INSERT INTO " + TABLE + " (pk1, generation) VALUES (" + pk1 + ", " + generation + ")");
+		stmt.close();
+	}
+
+	private int sweep(long generation) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + TABLE + " WHERE " + FilesQueries.SWEEP);
+		stmt.setLong(1, generation);
+		int ret = stmt.executeUpdate();
+		stmt.close();
+		return ret;
+	}
+
+	private List<Long> remaining() throws SQLException
+	{
+		Statement stmt = conn.createStatement();
+		ResultSet res = stmt.executeQuery("SELECT pk1 FROM " + TABLE + " ORDER BY pk1");
+		List<Long> ret = new ArrayList<>();
+		while (res.next())
+		{
+			ret.add(res.getLong(1));
+		}
+		res.close();
+		stmt.close();
+		return ret;
+	}
+}
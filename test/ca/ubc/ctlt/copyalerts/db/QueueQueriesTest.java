@@ -0,0 +1,209 @@
+package ca.ubc.ctlt.copyalerts.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the queue's claim and lease queries against an in memory H2 database, in both PostgreSQL and Oracle mode.
+ */
+@RunWith(Parameterized.class)
+public class QueueQueriesTest
+{
+	private final static String TABLE = "ubc_ctlt_ca_queue";
+	private final static long LEASE_MILLIS = 60000;
+
+	private String dbName;
+	private Connection conn;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> databases()
+	{
+		return Arrays.asList(new Object[][] { { "PostgreSQL" }, { "Oracle" } });
+	}
+
+	public QueueQueriesTest(String dbName)
+	{
+		this.dbName = dbName;
+	}
+
+	@Before
+	public void setUp() throws SQLException
+	{
+		conn = DriverManager.getConnection("jdbc:h2:mem:queue;MODE=" + dbName);
+		Statement stmt = conn.createStatement();
+		stmt.execute("CREATE TABLE " + TABLE + " (pk1 BIGINT PRIMARY KEY, filepath VARCHAR(1000), " +
+				"lease_owner VARCHAR(255), lease_expiry TIMESTAMP)");
+		for (int i = 1; i <= 10; i++)
+		{
+			stmt.execute("INSERT INTO " + TABLE + " (pk1, filepath) VALUES (" + i + ", '/courses/C/" + i + "')");
+		}
+		stmt.close();
+	}
+
+	@After
+	public void tearDown() throws SQLException
+	{
+		conn.createStatement().execute("DROP TABLE " + TABLE);
+		conn.close();
+	}
+
+	@Test
+	public void claimTakesTheFrontOfTheQueue() throws SQLException
+	{
+		assertEquals(4, claim("a", 4, now()));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), leasedTo("a"));
+	}
+
+	@Test
+	public void claimsDontOverlap() throws SQLException
+	{
+		long now = now();
+		claim("a", 4, now);
+		assertEquals(4, claim("b", 4, now));
+		assertEquals(Arrays.asList(5L, 6L, 7L, 8L), leasedTo("b"));
+		assertEquals(2, claim("c", 4, now));
+		assertEquals(Arrays.asList(9L, 10L), leasedTo("c"));
+		assertEquals(0, claim("d", 4, now));
+		assertFalse(hasClaimable(now));
+	}
+
+	@Test
+	public void expiredLeasesCanBeClaimedAgain() throws SQLException
+	{
+		long now = now();
+		claim("a", 10, now);
+		assertFalse(hasClaimable(now + LEASE_MILLIS - 1));
+		assertTrue(hasClaimable(now + LEASE_MILLIS + 1));
+		assertEquals(3, claim("b", 3, now + LEASE_MILLIS + 1));
+		assertEquals(Arrays.asList(1L, 2L, 3L), leasedTo("b"));
+		assertEquals(7, leasedTo("a").size());
+	}
+
+	@Test
+	public void releasedRowsCanBeClaimedAgain() throws SQLException
+	{
+		long now = now();
+		claim("host1:x", 3, now);
+		claim("host2:y", 3, now);
+		PreparedStatement stmt = conn.prepareStatement(QueueQueries.getReleaseQuery(TABLE, "lease_owner LIKE ?"));
+		stmt.setString(1, "host1:%");
+		assertEquals(3, stmt.executeUpdate());
+		stmt.close();
+		assertEquals(0, leasedTo("host1:x").size());
+		assertNull(leaseExpiry(1));
+		assertEquals(3, claim("z", 3, now));
+		assertEquals(Arrays.asList(1L, 2L, 3L), leasedTo("z"));
+	}
+
+	@Test
+	public void hasClaimableOnlyNeedsOneRow() throws SQLException
+	{
+		long now = now();
+		assertTrue(hasClaimable(now));
+		claim("a", 9, now);
+		assertTrue(hasClaimable(now));
+		claim("a", 1, now);
+		assertFalse(hasClaimable(now));
+	}
+
+	@Test
+	public void completeOnlyDeletesTheOwnersRows() throws SQLException
+	{
+		long now = now();
+		claim("a", 3, now);
+		claim("b", 3, now);
+		// a's lease on row 3 expired and c took it over
+		conn.createStatement().execute("UPDATE " + TABLE + " SET lease_owner = 'c' WHERE pk1 = 3");
+		PreparedStatement stmt = conn.prepareStatement(QueueQueries.getCompleteQuery(TABLE));
+		stmt.setLong(1, 3);
+		stmt.setString(2, "a");
+		assertEquals(2, stmt.executeUpdate());
+		stmt.close();
+		assertEquals(0, leasedTo("a").size());
+		assertEquals(Arrays.asList(3L), leasedTo("c"));
+		assertEquals(Arrays.asList(4L, 5L, 6L), leasedTo("b"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void unsupportedDatabase()
+	{
+		QueueQueries.getClaimQuery("MySQL", TABLE);
+	}
+
+	private int claim(String owner, int num, long now) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement(QueueQueries.getClaimQuery(dbName, TABLE));
+		stmt.setString(1, owner);
+		stmt.setTimestamp(2, new Timestamp(now + LEASE_MILLIS));
+		stmt.setTimestamp(3, new Timestamp(now));
+		stmt.setInt(4, num);
+		stmt.setTimestamp(5, new Timestamp(now));
+		int ret = stmt.executeUpdate();
+		stmt.close();
+		return ret;
+	}
+
+	private boolean hasClaimable(long now) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement(QueueQueries.getHasClaimableQuery(dbName, TABLE));
+		stmt.setTimestamp(1, new Timestamp(now));
+		ResultSet res = stmt.executeQuery();
+		boolean ret = res.next();
+		res.close();
+		stmt.close();
+		return ret;
+	}
+
+	private List<Long> leasedTo(String owner) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement("SELECT pk1 FROM " + TABLE + " WHERE lease_owner = ? ORDER BY pk1");
+		stmt.setString(1, owner);
+		ResultSet res = stmt.executeQuery();
+		List<Long> ret = new ArrayList<>();
+		while (res.next())
+		{
+			ret.add(res.getLong(1));
+		}
+		res.close();
+		stmt.close();
+		return ret;
+	}
+
+	private Timestamp leaseExpiry(long pk1) throws SQLException
+	{
+		PreparedStatement stmt = conn.prepareStatement("SELECT lease_expiry FROM " + TABLE + " WHERE pk1 = ?");
+		stmt.setLong(1, pk1);
+		ResultSet res = stmt.executeQuery();
+		res.next();
+		Timestamp ret = res.getTimestamp(1);
+		res.close();
+		stmt.close();
+		return ret;
+	}
+
+	private long now()
+	{
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,68 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanCheckpointTest
+{
+	@Test
+	public void inOrderRowsMoveTheCheckpoint()
+	{
+		ScanCheckpoint checkpoint = new ScanCheckpoint(0, 0);
+		assertTrue(checkpoint.finish(1, 101));
+		assertTrue(checkpoint.finish(2, 105));
+		assertEquals(2, checkpoint.getOffset());
+		assertEquals(105, checkpoint.getRowId());
+		assertEquals(0, checkpoint.getWaiting());
+	}
+
+	@Test
+	public void laterRowsWaitForAnEarlierOne()
+	{
+		ScanCheckpoint checkpoint = new ScanCheckpoint(0, 0);
+		assertFalse(checkpoint.finish(2, 105));
+		assertFalse(checkpoint.finish(3, 107));
+		// row 1 is still being worked on, resuming has to start from the beginning
+		assertEquals(0, checkpoint.getOffset());
+		assertEquals(0, checkpoint.getRowId());
+		assertEquals(2, checkpoint.getWaiting());
+
+		assertTrue(checkpoint.finish(1, 101));
+		assertEquals(3, checkpoint.getOffset());
+		assertEquals(107, checkpoint.getRowId());
+		assertEquals(0, checkpoint.getWaiting());
+	}
+
+	@Test
+	public void checkpointStopsAtTheFirstGap()
+	{
+		ScanCheckpoint checkpoint = new ScanCheckpoint(0, 0);
+		checkpoint.finish(1, 101);
+		checkpoint.finish(3, 107);
+		checkpoint.finish(4, 110);
+		assertEquals(1, checkpoint.getOffset());
+		assertEquals(101, checkpoint.getRowId());
+		assertEquals(2, checkpoint.getWaiting());
+
+		checkpoint.finish(2, 105);
+		assertEquals(4, checkpoint.getOffset());
+		assertEquals(110, checkpoint.getRowId());
+	}
+
+	@Test
+	public void resumedScanStartsFromTheSavedCheckpoint()
+	{
+		ScanCheckpoint checkpoint = new ScanCheckpoint(500, 9000);
+		assertEquals(500, checkpoint.getOffset());
+		assertEquals(9000, checkpoint.getRowId());
+
+		assertFalse(checkpoint.finish(502, 9010));
+		assertEquals(500, checkpoint.getOffset());
+		assertTrue(checkpoint.finish(501, 9005));
+		assertEquals(502, checkpoint.getOffset());
+		assertEquals(9010, checkpoint.getRowId());
+	}
+}
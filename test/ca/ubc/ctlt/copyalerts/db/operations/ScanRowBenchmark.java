@@ -0,0 +1,206 @@
+package ca.ubc.ctlt.copyalerts.db.operations;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares handing scan rows to processors as a new map per row, the way ResumableScan used to, against the
+ * reused ScanRow, over a stub result set. Also compares recording the scan's row count on every row against
+ * recording it every RECORD_INTERVAL rows, with the same atomic add and clock read that the progress counters do.
+ *
+ * Not a unit test, run it with "gradle scanRowBenchmark", the first round is warm up. The stub result set's own
+ * cost, including what the proxy allocates for each call, is measured separately and taken off, so the numbers are
+ * just the handoff.
+ */
+public class ScanRowBenchmark
+{
+	private final static int ROWS = 2000000;
+	private final static int ROUNDS = 5;
+	private final static int RECORD_INTERVAL = 100;
+	private final static String PATH = "/courses/CL.UBC.MATH.101.201.2012W2.13204/lecture/notes-week-01.pdf";
+	private final static Long PK1 = 123456789L;
+
+	private static long sink = 0;
+	private final static AtomicLong counter = new AtomicLong();
+
+	public static void main(String[] args) throws SQLException
+	{
+		ResumableScanInfo info = new ResumableScanInfo("t", Arrays.asList("filepath"), "pk1", 0, 0);
+		for (int round = 1; round <= ROUNDS; round++)
+		{
+			Result base = run(new Baseline(), info);
+			Result map = run(new MapHandoff(), info);
+			Result row = run(new ScanRowHandoff(), info);
+			Result everyRow = run(new RecordEveryRow(), info);
+			Result batched = run(new RecordBatched(), info);
+			System.out.println(String.format("round %d: map %s | ScanRow %s | record every row %s | every %d rows %s",
+					round, map.minus(base), row.minus(base), everyRow.minus(base), RECORD_INTERVAL,
+					batched.minus(base)));
+		}
+		System.out.println(sink == 42 ? "" : " ");
+	}
+
+	private static Result run(Loop loop, ResumableScanInfo info) throws SQLException
+	{
+		StubRows stub = new StubRows(ROWS);
+		ResultSet res = stub.create();
+		ResultSetScanRow row = new ResultSetScanRow(res, info);
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long offset = 0;
+		while (res.next())
+		{
+			row.setOffset(++offset);
+			loop.row(res, row);
+		}
+		long nanos = System.nanoTime() - start;
+		return new Result(nanos / (double) ROWS, (allocatedBytes() - bytesBefore) / (double) ROWS);
+	}
+
+	private static long allocatedBytes()
+	{
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private interface Loop
+	{
+		void row(ResultSet res, ResultSetScanRow row) throws SQLException;
+	}
+
+	/**
+	 * Just reads the columns, what every path has to do anyway.
+	 */
+	private static class Baseline implements Loop
+	{
+		@Override
+		public void row(ResultSet res, ResultSetScanRow row) throws SQLException
+		{
+			sink += res.getString(1).length() + row.getOffset() + res.getLong(2);
+		}
+	}
+
+	/**
+	 * The old handoff, every column as a string in a new map, with the ids parsed back out by the processor.
+	 */
+	private static class MapHandoff implements Loop
+	{
+		@Override
+		public void row(ResultSet res, ResultSetScanRow row) throws SQLException
+		{
+			Map<String, String> map = new HashMap<>();
+			map.put("filepath", res.getString(1));
+			map.put("pk1", String.valueOf(res.getLong(2)));
+			map.put("rownum", String.valueOf(row.getOffset()));
+			sink += map.get("filepath").length() + Long.parseLong(map.get("rownum")) + Long.parseLong(map.get("pk1"));
+		}
+	}
+
+	private static class ScanRowHandoff implements Loop
+	{
+		@Override
+		public void row(ResultSet res, ResultSetScanRow row) throws SQLException
+		{
+			sink += row.getString(0).length() + row.getOffset() + row.getRowId();
+		}
+	}
+
+	private static class RecordEveryRow extends Baseline
+	{
+		@Override
+		public void row(ResultSet res, ResultSetScanRow row) throws SQLException
+		{
+			super.row(res, row);
+			counter.addAndGet(1);
+			sink += System.nanoTime() & 1;
+		}
+	}
+
+	private static class RecordBatched extends Baseline
+	{
+		private int unrecorded = 0;
+
+		@Override
+		public void row(ResultSet res, ResultSetScanRow row) throws SQLException
+		{
+			super.row(res, row);
+			if (++unrecorded >= RECORD_INTERVAL)
+			{
+				counter.addAndGet(unrecorded);
+				sink += System.nanoTime() & 1;
+				unrecorded = 0;
+			}
+		}
+	}
+
+	/**
+	 * A result set with the given number of rows, all the same: the path and the row id.
+	 */
+	private static class StubRows implements InvocationHandler
+	{
+		private int left;
+
+		StubRows(int rows)
+		{
+			this.left = rows;
+		}
+
+		ResultSet create()
+		{
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+					this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			switch (method.getName())
+			{
+				case "next":
+					return left-- > 0;
+				case "getString":
+					return PATH;
+				case "getLong":
+					return PK1;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		}
+	}
+
+	private static class Result
+	{
+		private double nanosPerRow;
+		private double bytesPerRow;
+
+		Result(double nanosPerRow, double bytesPerRow)
+		{
+			this.nanosPerRow = nanosPerRow;
+			this.bytesPerRow = bytesPerRow;
+		}
+
+		Result minus(Result base)
+		{
+			return new Result(nanosPerRow - base.nanosPerRow, bytesPerRow - base.bytesPerRow);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%.1f ns/row %.0f B/row", nanosPerRow, bytesPerRow);
+		}
+	}
+}
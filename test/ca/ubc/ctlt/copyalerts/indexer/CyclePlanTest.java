@@ -0,0 +1,82 @@
+package ca.ubc.ctlt.copyalerts.indexer;
+
+import ca.ubc.ctlt.copyalerts.db.entities.Status;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks the decisions CSIndexJob makes over a cycle: starting or resuming, picking the run mode and generation,
+ * and whether stage 3 can sweep. The sweep and generation stamp SQL itself is covered by FilesQueriesTest.
+ */
+public class CyclePlanTest
+{
+	private final static Timestamp NOW = new Timestamp(100 * CyclePlan.DAY_MILLIS);
+
+	@Test
+	public void fullCycleGetsANewGenerationAndSweeps()
+	{
+		long generation = 3;
+		assertTrue(CyclePlan.isNewCycle(0, Collections.emptyList()));
+		String mode = CyclePlan.chooseRunMode(false, 5000, daysAgo(1), NOW, 7);
+		assertEquals(Status.RUN_MODE_FULL, mode);
+		if (CyclePlan.needsNewGeneration(mode))
+		{
+			generation++;
+		}
+		assertEquals(4, generation);
+		assertEquals(Status.STATUS_STAGE_UPDATE, CyclePlan.stageAfterNewFiles(mode));
+		assertTrue(CyclePlan.canSweep(false, generation));
+	}
+
+	@Test
+	public void runResumedAfterTheTimeLimitStaysInTheSameCycle()
+	{
+		// stopped part way through a sequential queue generation
+		assertFalse(CyclePlan.isNewCycle(5000, Collections.emptyList()));
+		// stopped part way through a partitioned one, the partitions are still there even if the position isn't
+		assertFalse(CyclePlan.isNewCycle(0, Arrays.asList("partition")));
+	}
+
+	@Test
+	public void incrementalRunKeepsTheGenerationAndSkipsTheSweep()
+	{
+		String mode = CyclePlan.chooseRunMode(true, 5000, daysAgo(1), NOW, 7);
+		assertEquals(Status.RUN_MODE_INCREMENTAL, mode);
+		assertFalse(CyclePlan.needsNewGeneration(mode));
+		// stage 3, and so the sweep, never runs
+		assertEquals(Status.STATUS_STAGE_QUEUE, CyclePlan.stageAfterNewFiles(mode));
+	}
+
+	@Test
+	public void incrementalFallsBackToAFullSweep()
+	{
+		// no watermark from an earlier queue generation
+		assertEquals(Status.RUN_MODE_FULL, CyclePlan.chooseRunMode(true, 0, daysAgo(1), NOW, 7));
+		// never had a full sweep
+		assertEquals(Status.RUN_MODE_FULL, CyclePlan.chooseRunMode(true, 5000, null, NOW, 7));
+		// full sweep is due
+		assertEquals(Status.RUN_MODE_FULL, CyclePlan.chooseRunMode(true, 5000, daysAgo(7), NOW, 7));
+		assertEquals(Status.RUN_MODE_INCREMENTAL, CyclePlan.chooseRunMode(true, 5000, daysAgo(6), NOW, 7));
+	}
+
+	@Test
+	public void noSweepWithoutGenerations()
+	{
+		// the cycle started before entries had generations, nothing has been stamped
+		assertFalse(CyclePlan.canSweep(false, 0));
+		// asked to check every entry against the content system instead
+		assertFalse(CyclePlan.canSweep(true, 4));
+	}
+
+	private static Timestamp daysAgo(int days)
+	{
+		return new Timestamp(NOW.getTime() - days * CyclePlan.DAY_MILLIS);
+	}
+}